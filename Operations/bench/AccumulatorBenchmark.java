@@ -0,0 +1,292 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+
+package operations;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+
+
+/**
+ * Benchmark of the sums of the partial products of MultMatrix. The products
+ * are the lines "row,column;rejim" of U^power * U, where U is the operator
+ * of a coined quantum walk on a cycle with the coin (1/sqrt(2)) [[1, i],
+ * [i, 1]].
+ *
+ * The string path is the map and the combiner used before the accumulator:
+ * a Text key "row,column" and a Text value for each product, and the values
+ * of a key are split in "j" and parsed (a hash map stands for the sort).
+ * The accumulator path is MultMatrix.MapResult: the key is packed in a long
+ * and the sums are kept in a ComplexAccumulator written when it is full.
+ *
+ * Run it with java -Xmx512m operations.AccumulatorBenchmark [POSITIONS
+ * [POWER [RUNS]]]. The default is 16384 positions, the power 4 and 10 runs
+ * after 3 runs of warm up.
+ *
+ * @version 1.0 17 Oct 2026
+ * @author David Souza
+ */
+
+
+public class AccumulatorBenchmark {
+
+    private static final int WARM_UP = 3;
+
+    private static final double H = 1.0d / Math.sqrt(2.0d);
+
+    /*
+     * Coin operator: COIN_RE[d][c] + i COIN_IM[d][c].
+     */
+    private static final double[][] COIN_RE = {{H, 0.0d}, {0.0d, H}};
+    private static final double[][] COIN_IM = {{0.0d, H}, {H, 0.0d}};
+
+    private static double checksum = 0.0d;
+
+
+    /**
+     * Column of U^power for the state start, as a map from the row to the
+     * real and imaginary parts. The state 2 * x + c is the position x with
+     * the coin c; U applies the coin and moves the coin 0 to the left and
+     * the coin 1 to the right.
+     */
+    static Map<Integer, double[]> column(int positions, int power,
+            int start) {
+
+        Map<Integer, double[]> v = new HashMap<Integer, double[]>();
+        Map<Integer, double[]> next;
+        double[] value;
+        double[] sum;
+        int x;
+        int c;
+        int row;
+
+        v.put(start, new double[] {1.0d, 0.0d});
+
+        for (int p = 0; p < power; p++) {
+            next = new HashMap<Integer, double[]>();
+
+            for (Map.Entry<Integer, double[]> entry : v.entrySet()) {
+                x = entry.getKey() / 2;
+                c = entry.getKey() % 2;
+                value = entry.getValue();
+
+                for (int d = 0; d < 2; d++) {
+                    row = 2 * ((x + (d == 0 ? positions - 1 : 1)) % positions)
+                            + d;
+
+                    sum = next.get(row);
+                    if (sum == null) {
+                        sum = new double[2];
+                        next.put(row, sum);
+                    }
+
+                    sum[0] += ComplexMath.multiplyReal(COIN_RE[d][c],
+                            COIN_IM[d][c], value[0], value[1]);
+                    sum[1] += ComplexMath.multiplyImaginary(COIN_RE[d][c],
+                            COIN_IM[d][c], value[0], value[1]);
+                }
+            }
+
+            v = next;
+        }
+
+        return v;
+    }
+
+
+    /**
+     * The lines of the partial products of A * B with A = U^power and
+     * B = U, as written by the first job of MultMatrix. Two paths of the
+     * walk that end in the same state give two products of the same key.
+     */
+    static String[] products(int positions, int power) {
+
+        int states = 2 * positions;
+        List<Map<Integer, double[]>> columnsA =
+                new ArrayList<Map<Integer, double[]>>(states);
+        List<String> lines = new ArrayList<String>();
+        double[] a;
+        int x;
+        int c;
+        int k;
+
+        for (int j = 0; j < states; j++) {
+            columnsA.add(column(positions, power, j));
+        }
+
+        // The column j of B has the elements U(k, j) for the two coins.
+        for (int j = 0; j < states; j++) {
+            x = j / 2;
+            c = j % 2;
+
+            for (int d = 0; d < 2; d++) {
+                k = 2 * ((x + (d == 0 ? positions - 1 : 1)) % positions) + d;
+
+                for (Map.Entry<Integer, double[]> entry
+                        : columnsA.get(k).entrySet()) {
+                    a = entry.getValue();
+                    lines.add(Integer.toString(entry.getKey()) + ","
+                            + Integer.toString(j) + ";"
+                            + Double.toString(ComplexMath.multiplyReal(a[0],
+                            a[1], COIN_RE[d][c], COIN_IM[d][c])) + "j"
+                            + Double.toString(ComplexMath.multiplyImaginary(
+                            a[0], a[1], COIN_RE[d][c], COIN_IM[d][c])));
+                }
+            }
+        }
+
+        return lines.toArray(new String[lines.size()]);
+    }
+
+
+    /**
+     * MapResult and CombineResult with Text keys and values. Return the
+     * number of sums written.
+     */
+    static int stringPath(String[] lines) {
+
+        Map<Text, double[]> groups = new HashMap<Text, double[]>();
+        String[] vals;
+        String[] value;
+        Text outputKey;
+        Text outputValue;
+        double[] sum;
+        int count = 0;
+
+        for (String line : lines) {
+            vals = line.split(";");
+            outputKey = new Text(vals[0]);
+            outputValue = new Text(vals[1]);
+
+            sum = groups.get(outputKey);
+            if (sum == null) {
+                sum = new double[2];
+                groups.put(outputKey, sum);
+            }
+
+            value = outputValue.toString().split("j");
+            sum[0] += Double.parseDouble(value[0]);
+            sum[1] += Double.parseDouble(value[1]);
+        }
+
+        for (Map.Entry<Text, double[]> entry : groups.entrySet()) {
+            sum = entry.getValue();
+            if (sum[0] != 0.0d || sum[1] != 0.0d) {
+                outputValue = new Text(Double.toString(sum[0]) + "j"
+                        + Double.toString(sum[1]));
+                checksum += outputValue.getLength();
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+
+    /**
+     * MapResult with the sums in a ComplexAccumulator. Return the number of
+     * sums written; a key is written again after each flush of the table.
+     */
+    static int accumulatorPath(String[] lines, int accumulatorSize) {
+
+        ComplexAccumulator sums = new ComplexAccumulator(accumulatorSize);
+        ComplexWritable element = new ComplexWritable();
+        LongWritable outputKey = new LongWritable();
+        ComplexWritable outputValue = new ComplexWritable();
+        int count = 0;
+        int comma;
+        int semicolon;
+
+        for (String line : lines) {
+            comma = line.indexOf(',');
+            semicolon = line.indexOf(';');
+
+            element.set(line.substring(semicolon + 1));
+            sums.add(ComplexAccumulator.pack(
+                    Long.parseLong(line.substring(0, comma)),
+                    Long.parseLong(line.substring(comma + 1, semicolon))),
+                    element.getReal(), element.getImaginary());
+
+            if (sums.isFull()) {
+                count += write(sums, outputKey, outputValue);
+            }
+        }
+
+        return count + write(sums, outputKey, outputValue);
+    }
+
+
+    private static int write(ComplexAccumulator sums, LongWritable outputKey,
+            ComplexWritable outputValue) {
+
+        int count = 0;
+
+        for (int i = sums.next(0); i > -1; i = sums.next(i + 1)) {
+            outputKey.set(sums.key(i));
+            outputValue.set(sums.real(i), sums.imaginary(i));
+            checksum += outputValue.getReal();
+            count++;
+        }
+
+        sums.clear();
+
+        return count;
+    }
+
+
+    public static void main(String[] args) {
+
+        int positions = args.length > 0 ? Integer.parseInt(args[0]) : 16384;
+        int power = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        String[] lines = products(positions, power);
+        Measurement strings = new Measurement("Text keys and values");
+        Measurement accumulator = new Measurement("ComplexAccumulator");
+        int outputStrings = 0;
+        int outputAccumulator = 0;
+
+        System.out.println(lines.length + " products of U^" + power
+                + " * U for " + positions + " positions.");
+
+        for (int i = 0; i < WARM_UP + runs; i++) {
+
+            if (i == WARM_UP) {
+                strings.reset();
+                accumulator.reset();
+            }
+
+            strings.start();
+            outputStrings = stringPath(lines);
+            strings.stop();
+
+            accumulator.start();
+            outputAccumulator = accumulatorPath(lines,
+                    MultMatrix.DEFAULT_ACCUMULATOR_SIZE);
+            accumulator.stop();
+        }
+
+        System.out.println(strings + " " + outputStrings + " written");
+        System.out.println(accumulator + " " + outputAccumulator
+                + " written");
+        System.out.println(String.format("Speedup: %.2f (checksum %.3f)",
+                strings.meanTime() / accumulator.meanTime(), checksum));
+    }
+}
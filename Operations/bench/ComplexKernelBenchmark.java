@@ -0,0 +1,159 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+
+package operations;
+
+import java.util.Random;
+
+
+/**
+ * Benchmark of ComplexMath.scale, the kernel of the reduce tasks of
+ * MultMatrix and KronMatrix that multiply an element of A by all elements
+ * of B, against the string path used before it, where each element is a
+ * value "rejim" that is split in "j", parsed and written again with
+ * Double.toString.
+ *
+ * Run it with java operations.ComplexKernelBenchmark [N [RUNS]]. The default
+ * is 262144 elements and 10 runs after 3 runs of warm up.
+ *
+ * @version 1.0 17 Oct 2026
+ * @author David Souza
+ */
+
+
+public class ComplexKernelBenchmark {
+
+    private static final int WARM_UP = 3;
+
+    private static final double ALPHA_RE = 0.6d;
+    private static final double ALPHA_IM = -0.8d;
+
+    private final int n;
+    private final double[] xRe;
+    private final double[] xIm;
+    private final double[] yRe;
+    private final double[] yIm;
+    private final String[] x;
+    private final String[] y;
+
+
+    public ComplexKernelBenchmark(int n) {
+
+        Random random = new Random(1);
+
+        this.n = n;
+        xRe = new double[n];
+        xIm = new double[n];
+        yRe = new double[n];
+        yIm = new double[n];
+        x = new String[n];
+        y = new String[n];
+
+        for (int i = 0; i < n; i++) {
+            xRe[i] = random.nextGaussian();
+            xIm[i] = random.nextGaussian();
+            x[i] = Double.toString(xRe[i]) + "j" + Double.toString(xIm[i]);
+        }
+    }
+
+
+    /**
+     * Multiply the strings by alpha and return the sum of the real and the
+     * imaginary parts of the result.
+     */
+    double strings() {
+
+        String[] value;
+        double re;
+        double im;
+        double sum = 0.0d;
+
+        for (int i = 0; i < n; i++) {
+            value = x[i].split("j");
+            re = ALPHA_RE * Double.parseDouble(value[0]) - ALPHA_IM
+                    * Double.parseDouble(value[1]);
+            im = ALPHA_RE * Double.parseDouble(value[1]) + ALPHA_IM
+                    * Double.parseDouble(value[0]);
+            y[i] = Double.toString(re) + "j" + Double.toString(im);
+            sum += re + im;
+        }
+
+        return sum;
+    }
+
+
+    /**
+     * Multiply the arrays by alpha with ComplexMath.scale.
+     */
+    void arrays() {
+        ComplexMath.scale(ALPHA_RE, ALPHA_IM, xRe, xIm, yRe, yIm, n);
+    }
+
+
+    /**
+     * Sum of the real and the imaginary parts of the result of arrays,
+     * calculated out of the measured time.
+     */
+    double sum() {
+
+        double sum = 0.0d;
+
+        for (int i = 0; i < n; i++) {
+            sum += yRe[i] + yIm[i];
+        }
+
+        return sum;
+    }
+
+
+    public static void main(String[] args) {
+
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 262144;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        ComplexKernelBenchmark benchmark = new ComplexKernelBenchmark(n);
+        Measurement strings = new Measurement("scale strings");
+        Measurement arrays = new Measurement("scale ComplexMath");
+        double resultStrings = 0.0d;
+        double resultArrays = 0.0d;
+
+        System.out.println(n + " elements.");
+
+        for (int i = 0; i < WARM_UP + runs; i++) {
+
+            if (i == WARM_UP) {
+                strings.reset();
+                arrays.reset();
+            }
+
+            strings.start();
+            resultStrings = benchmark.strings();
+            strings.stop();
+
+            arrays.start();
+            benchmark.arrays();
+            arrays.stop();
+
+            resultArrays = benchmark.sum();
+        }
+
+        System.out.println(strings);
+        System.out.println(arrays);
+        System.out.println(String.format("Speedup: %.1f (results %.6f and "
+                + "%.6f)", strings.meanTime() / arrays.meanTime(),
+                resultStrings, resultArrays));
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+
+package operations;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+
+/**
+ * The time and the garbage collections of a part of a benchmark. The
+ * collections are read from the collector beans of the JVM, so they count
+ * all threads; the benchmarks run in one thread.
+ *
+ * @version 1.0 17 Oct 2026
+ * @author David Souza
+ */
+
+
+public class Measurement {
+
+    private final String name;
+    private long time = 0;
+    private long collections = 0;
+    private long collectionTime = 0;
+    private long startTime;
+    private long startCollections;
+    private long startCollectionTime;
+    private int runs = 0;
+
+
+    public Measurement(String name) {
+        this.name = name;
+    }
+
+
+    public void start() {
+
+        System.gc();
+
+        startCollections = collections();
+        startCollectionTime = collectionTime();
+        startTime = System.nanoTime();
+    }
+
+
+    public void stop() {
+
+        time += System.nanoTime() - startTime;
+        collections += collections() - startCollections;
+        collectionTime += collectionTime() - startCollectionTime;
+        runs++;
+    }
+
+
+    /**
+     * Forget the runs of the warm up.
+     */
+    public void reset() {
+
+        time = 0;
+        collections = 0;
+        collectionTime = 0;
+        runs = 0;
+    }
+
+
+    /**
+     * Mean time of a run in milliseconds.
+     */
+    public double meanTime() {
+        return runs == 0 ? 0.0d : time / 1e6 / runs;
+    }
+
+
+    public String toString() {
+        return String.format("%-32s %10.2f ms/run %6d GCs %8d ms in GC",
+                name, meanTime(), collections, collectionTime);
+    }
+
+
+    private static long collections() {
+
+        long count = 0;
+
+        for (GarbageCollectorMXBean bean
+                : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(bean.getCollectionCount(), 0);
+        }
+
+        return count;
+    }
+
+
+    private static long collectionTime() {
+
+        long count = 0;
+
+        for (GarbageCollectorMXBean bean
+                : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(bean.getCollectionTime(), 0);
+        }
+
+        return count;
+    }
+}
@@ -31,6 +31,7 @@ import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
 
 
 /**
@@ -65,8 +66,21 @@ public class AbsSquare {
     private static final int VALUE = 3;
 
 
+    /**
+     * In the map-only mode there is no key: each map task writes its lines
+     * in the order of its split and the header is written by the driver in
+     * its own file.
+     */
     public static class Map extends
             Mapper<LongWritable, Text, LongWritable, Text> {
+
+        private boolean mapOnly;
+
+        protected void setup(Context context) throws IOException,
+                InterruptedException {
+            mapOnly = context.getConfiguration().getBoolean("mapOnly", false);
+        }
+
         public void map(LongWritable key, Text value, Context context)
                 throws IOException, InterruptedException {
 
@@ -86,21 +100,37 @@ public class AbsSquare {
                 
                 real = Double.parseDouble(vals[0]);
                 imaginary = Double.parseDouble(vals[1]);
-                fullOutput += Double.toString(Math.pow(Math.sqrt((real * real
-                                + imaginary * imaginary)), 2));
+                fullOutput += Double.toString(ComplexMath.absSquare(real,
+                        imaginary));
 
-                context.write(key, new Text(fullOutput));
+                context.write(mapOnly ? null : key, new Text(fullOutput));
 
             } else {
 
-                context.write(new LongWritable(-1), new Text(records[TYPE] + ","
-                        + records[INDEX] + "," + records[EXTRA_INDEX]));
+                if (!mapOnly) {
+                    context.write(new LongWritable(-1), new Text(records[TYPE]
+                            + "," + records[INDEX] + ","
+                            + records[EXTRA_INDEX]));
+                }
             }
         }
 
     }
 
 
+    public static class BinaryMap extends
+            MatrixFormat.BinaryMapper<LongPair, ComplexWritable> {
+        public void map(LongPair key, ComplexWritable value, Context context)
+                throws IOException, InterruptedException {
+
+            // The index is in the key, so the order of the output is free.
+            context.write(key, new ComplexWritable(ComplexMath.absSquare(
+                    value.getReal(), value.getImaginary()), 0.0d));
+        }
+
+    }
+
+
     public static class Reduce extends Reducer<LongWritable, Text,
             LongWritable, Text> {
         public void reduce(LongWritable key, Iterable<Text> values,
@@ -114,48 +144,73 @@ public class AbsSquare {
     }
 
 
-    public static void main(String[] args) throws Exception {
+    /**
+     * Run the operation with the given configuration. A driver calls it to
+     * submit the jobs in its own JVM; the file systems are not closed.
+     */
+    public static void run(Configuration conf, String[] args)
+            throws Exception {
 
-        Configuration conf = new Configuration();
         Path inputPath;
         Path outputPath;
         FileSystem  fs;
         Job job;
+        String[] header = null;
+        boolean mapOnly = false;
 
-        try {
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+        inputPath = new Path(args[0]);
+        outputPath = new Path(args[1]);
 
-            inputPath = new Path(args[0]);
-            outputPath = new Path(args[1]);
+        /*
+         * Disable the map output compression in Hadoop for gain of
+         * performance
+         */
+        conf.set("mapred.compress.map.output", "false");
 
-            /*
-             * Disable the map output compression in Hadoop for gain of
-             * performance
-             */
-            conf.set("mapred.compress.map.output", "false");
+        // Set the key/value separator
+        conf.set("mapred.textoutputformat.separator", ",");
 
-            // Set the key/value separator
-            conf.set("mapred.textoutputformat.separator", ",");
+        fs = FileSystem.get(new URI(outputPath.toString()), conf);
 
-            fs = FileSystem.get(new URI(outputPath.toString()), conf);
+        // Delete the output directory if it already exists.
+        fs.delete(outputPath, true);
 
-            // Delete the output directory if it already exists.
-            fs.delete(outputPath, true);
-            fs.close();
+        // Create job
+        job = new Job(conf, "AbsSquare");
+        job.setJarByClass(AbsSquare.class);
 
-            // Create job
-            job = new Job(conf, "AbsSquare");
-            job.setJarByClass(AbsSquare.class);
+        // Specify key / value
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(Text.class);
 
-            // Specify key / value
-            job.setOutputKeyClass(Text.class);
-            job.setOutputValueClass(Text.class);
+        if (MatrixFormat.isBinary(conf, inputPath)) {
+
+            header = MatrixFormat.findHeader(conf, inputPath);
+
+            // A binary input gives a binary output with the same shape.
+            job.setMapperClass(BinaryMap.class);
+            job.setNumReduceTasks(0);
+            MatrixFormat.setBinaryInput(job);
+            MatrixFormat.setBinaryOutput(job, header[0].substring(1),
+                    header[1], header[2]);
+
+        } else {
 
             // Setup MapReduce job
             job.setMapperClass(Map.class);
-            job.setReducerClass(Reduce.class);
 
-            // Set only the number of reduces tasks
-            job.setNumReduceTasks(1);
+            if (conf.getBoolean("mapOnly", false)) {
+                // Each element is written by its map task.
+                job.setNumReduceTasks(0);
+                header = MatrixFormat.findHeader(conf, inputPath);
+                mapOnly = true;
+            } else {
+                job.setReducerClass(Reduce.class);
+
+                // Set only the number of reduces tasks
+                job.setNumReduceTasks(1);
+            }
 
             // Set Map output Key/Value type
             job.setMapOutputKeyClass(LongWritable.class);
@@ -163,19 +218,34 @@ public class AbsSquare {
 
             job.setInputFormatClass(TextInputFormat.class);
             job.setOutputFormatClass(TextOutputFormat.class);
+        }
 
-            // Input
-            FileInputFormat.addInputPath(job, inputPath);
+        // Input
+        FileInputFormat.addInputPath(job, inputPath);
 
-            // Output
-            FileOutputFormat.setOutputPath(job, outputPath);
+        // Output
+        FileOutputFormat.setOutputPath(job, outputPath);
 
-            // Execute job
-            job.waitForCompletion(true);
+        // Execute job
+        if (!job.waitForCompletion(true)) {
+            throw new IOException("The job AbsSquare failed.");
+        }
+
+        // The output keeps the shape of the input.
+        if (mapOnly) {
+            MatrixFormat.writeHeader(conf, outputPath, header[0] + ","
+                    + header[1] + "," + header[2]);
+        }
+    }
 
 
+    public static void main(String[] args) throws Exception {
+
+        try {
+            run(new Configuration(), args);
         } catch (Exception e) {
             System.out.println(e);
+            System.exit(1);
         }
 
     }
@@ -0,0 +1,183 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package operations;
+
+import java.util.Arrays;
+
+
+/**
+ * A map from the coordinate of a matrix element to the sum of complex
+ * numbers. The row and the column are packed in one long and the sums are
+ * stored in arrays of doubles, so adding a value creates no object. The
+ * table has a fixed size: the owner must write and clear the sums when
+ * isFull() is true.
+ *
+ * @version 1.0 17 Oct 2026
+ * @author David Souza
+ */
+
+
+public class ComplexAccumulator {
+
+    /**
+     * Bytes of heap used by one coordinate at most: a slot has a long key
+     * and two doubles, and the table has up to four slots per coordinate,
+     * so the open addressing stays at most half full.
+     */
+    public static final long BYTES_PER_ENTRY = 4 * (8 + 8 + 8);
+
+    /*
+     * Key of an empty slot. A packed key is never negative.
+     */
+    private static final long EMPTY = -1L;
+
+    /*
+     * Largest row or column that can be packed.
+     */
+    private static final long MAX_INDEX = Integer.MAX_VALUE;
+
+    private final long[] keys;
+    private final double[] real;
+    private final double[] imaginary;
+    private final int mask;
+    private final int maxSize;
+    private int size = 0;
+
+
+    /**
+     * Create a table for at most maxSize coordinates. The table has at
+     * least twice this number of slots.
+     */
+    public ComplexAccumulator(int maxSize) {
+
+        int capacity = Integer.highestOneBit(Math.max(maxSize, 1)) << 2;
+
+        this.maxSize = maxSize;
+        keys = new long[capacity];
+        real = new double[capacity];
+        imaginary = new double[capacity];
+        mask = capacity - 1;
+
+        Arrays.fill(keys, EMPTY);
+    }
+
+
+    /**
+     * Pack a row and a column in one key. Both must be in [0, 2^31).
+     */
+    public static long pack(long row, long column) {
+
+        if (row < 0 || row > MAX_INDEX || column < 0 || column > MAX_INDEX) {
+            throw new IllegalArgumentException("The coordinate (" + row + ","
+                    + column + ") can not be packed in a long.");
+        }
+
+        return (row << 32) | column;
+    }
+
+
+    public static long row(long key) {
+        return key >>> 32;
+    }
+
+
+    public static long column(long key) {
+        return key & 0xFFFFFFFFL;
+    }
+
+
+    /**
+     * Add a complex number to the sum of a key. A new key can not be added
+     * when every slot is used.
+     */
+    public void add(long key, double re, double im) {
+
+        int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        int probes = 0;
+
+        while (keys[slot] != key) {
+
+            if (keys[slot] == EMPTY) {
+                keys[slot] = key;
+                real[slot] = 0.0d;
+                imaginary[slot] = 0.0d;
+                size++;
+                break;
+            }
+
+            if (++probes == keys.length) {
+                throw new IllegalStateException("The accumulator has no free "
+                        + "slot. Write and clear the sums when isFull() is "
+                        + "true.");
+            }
+
+            slot = (slot + 1) & mask;
+        }
+
+        real[slot] += re;
+        imaginary[slot] += im;
+    }
+
+
+    public int size() {
+        return size;
+    }
+
+
+    public boolean isFull() {
+        return size >= maxSize;
+    }
+
+
+    /**
+     * Return the first used slot from the given slot or -1. Iterate with
+     * for (int i = next(0); i > -1; i = next(i + 1)).
+     */
+    public int next(int slot) {
+
+        for (int i = slot; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+
+    public long key(int slot) {
+        return keys[slot];
+    }
+
+
+    public double real(int slot) {
+        return real[slot];
+    }
+
+
+    public double imaginary(int slot) {
+        return imaginary[slot];
+    }
+
+
+    public void clear() {
+
+        if (size > 0) {
+            Arrays.fill(keys, EMPTY);
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package operations;
+
+
+/**
+ * Complex arithmetic used by the operations. The arrays hold the real and
+ * the imaginary parts separately and the loops have no branch, so the JIT
+ * compiler can vectorize them.
+ *
+ * @version 1.0 17 Oct 2026
+ * @author David Souza
+ */
+
+
+public final class ComplexMath {
+
+    private ComplexMath() {
+    }
+
+
+    /**
+     * Real part of (ar + i ai) * (br + i bi).
+     */
+    public static double multiplyReal(double ar, double ai, double br,
+            double bi) {
+        return ar * br - ai * bi;
+    }
+
+
+    /**
+     * Imaginary part of (ar + i ai) * (br + i bi).
+     */
+    public static double multiplyImaginary(double ar, double ai, double br,
+            double bi) {
+        return ar * bi + ai * br;
+    }
+
+
+    /**
+     * Square of the absolute value of re + i im.
+     */
+    public static double absSquare(double re, double im) {
+        return re * re + im * im;
+    }
+
+
+    /**
+     * y = alpha * x for the first n elements.
+     */
+    public static void scale(double alphaRe, double alphaIm, double[] xRe,
+            double[] xIm, double[] yRe, double[] yIm, int n) {
+
+        for (int i = 0; i < n; i++) {
+            yRe[i] = alphaRe * xRe[i] - alphaIm * xIm[i];
+            yIm[i] = alphaRe * xIm[i] + alphaIm * xRe[i];
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package operations;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+
+
+/**
+ * A complex number stored as two doubles. It is the value type of the
+ * binary matrix format.
+ *
+ * @version 1.0 17 Oct 2026
+ * @author David Souza
+ */
+
+
+public class ComplexWritable implements Writable {
+
+    private double real;
+    private double imaginary;
+
+
+    public ComplexWritable() {
+    }
+
+
+    public ComplexWritable(double real, double imaginary) {
+        set(real, imaginary);
+    }
+
+
+    public void set(double real, double imaginary) {
+        this.real = real;
+        this.imaginary = imaginary;
+    }
+
+
+    /**
+     * Set the value from the text format REALjIMAGINARY.
+     */
+    public void set(String value) {
+        int separator = value.indexOf('j');
+
+        real = Double.parseDouble(value.substring(0, separator));
+        imaginary = Double.parseDouble(value.substring(separator + 1));
+    }
+
+
+    public double getReal() {
+        return real;
+    }
+
+
+    public double getImaginary() {
+        return imaginary;
+    }
+
+
+    public void write(DataOutput out) throws IOException {
+        out.writeDouble(real);
+        out.writeDouble(imaginary);
+    }
+
+
+    public void readFields(DataInput in) throws IOException {
+        real = in.readDouble();
+        imaginary = in.readDouble();
+    }
+
+
+    /**
+     * The text format REALjIMAGINARY.
+     */
+    public String toString() {
+        return Double.toString(real) + "j" + Double.toString(imaginary);
+    }
+}
@@ -0,0 +1,259 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package operations;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.URI;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+
+
+/**
+ * This software convert a matrix between the text format and the binary
+ * format using Apache Hadoop.
+ *
+ * @version 1.0 17 Oct 2026
+ * @author David Souza
+ */
+
+
+public class ConvertMatrix {
+
+    public static class MapToBinary extends
+            Mapper<LongWritable, Text, LongPair, ComplexWritable> {
+
+        private LongPair outputKey = new LongPair();
+        private ComplexWritable outputValue = new ComplexWritable();
+
+        public void map(LongWritable key, Text value, Context context)
+                throws IOException, InterruptedException {
+
+            String line = value.toString();
+            // "," is the delimiter used in the input file.
+            String[] records = line.split(",");
+
+            // # is the header of the matrix file. It goes to the metadata.
+            if (records.length == 4 && records[0].indexOf("#") == -1) {
+
+                outputKey.set(Long.parseLong(records[1]),
+                        Long.parseLong(records[2]));
+                outputValue.set(records[3]);
+
+                context.write(outputKey, outputValue);
+            }
+        }
+    }
+
+
+    public static class MapToText extends
+            MatrixFormat.BinaryMapper<Text, Text> {
+
+        protected void setup(Context context) throws IOException,
+                InterruptedException {
+
+            super.setup(context);
+
+            if (header) {
+                context.write(null, new Text("#" + type + "," + rows + ","
+                        + columns));
+            }
+        }
+
+        public void map(LongPair key, ComplexWritable value, Context context)
+                throws IOException, InterruptedException {
+
+            context.write(null, new Text(type + "," + key.toString() + ","
+                    + value.toString()));
+        }
+    }
+
+
+    /**
+     * Copy the files of a matrix to outputPath with another type, A or B,
+     * in the same format. The files are copied one by one, without a job.
+     */
+    public static void changeType(Configuration conf, Path inputPath,
+            Path outputPath, String type) throws IOException {
+
+        FileSystem fs = inputPath.getFileSystem(conf);
+        FileSystem fsOutput = outputPath.getFileSystem(conf);
+        Path output;
+        String[] metadata;
+        String line;
+        BufferedReader br;
+        BufferedWriter bw;
+        SequenceFile.Reader reader;
+        SequenceFile.Writer writer;
+        LongPair key = new LongPair();
+        ComplexWritable value = new ComplexWritable();
+
+        fsOutput.mkdirs(outputPath);
+
+        for (FileStatus stat : fs.listStatus(inputPath)) {
+            if (stat.isDir() || !MatrixFormat.isDataFile(stat.getPath())) {
+                continue;
+            }
+
+            output = new Path(outputPath, stat.getPath().getName());
+
+            if (MatrixFormat.isBinaryFile(fs, stat.getPath())) {
+
+                // The type is only in the metadata.
+                metadata = MatrixFormat.readMetadata(conf, fs,
+                        stat.getPath());
+                reader = new SequenceFile.Reader(fs, stat.getPath(), conf);
+                writer = SequenceFile.createWriter(fsOutput, conf, output,
+                        LongPair.class, ComplexWritable.class,
+                        CompressionType.NONE, null, null,
+                        MatrixFormat.createMetadata(type,
+                        metadata[MatrixFormat.META_ROWS],
+                        metadata[MatrixFormat.META_COLUMNS],
+                        Boolean.parseBoolean(
+                        metadata[MatrixFormat.META_HEADER])));
+
+                while (reader.next(key, value)) {
+                    writer.append(key, value);
+                }
+
+                reader.close();
+                writer.close();
+
+            } else {
+
+                br = new BufferedReader(new InputStreamReader(fs.open(
+                        stat.getPath())));
+                bw = new BufferedWriter(new OutputStreamWriter(
+                        fsOutput.create(output, true)));
+
+                // The type is the first character of a line, after the #
+                // in the header.
+                while ((line = br.readLine()) != null) {
+                    if (line.startsWith("#")) {
+                        bw.write("#" + type + line.substring(2));
+                    } else {
+                        if (line.length() > 0) {
+                            bw.write(type + line.substring(1));
+                        }
+                    }
+                    bw.newLine();
+                }
+
+                br.close();
+                bw.close();
+            }
+        }
+    }
+
+
+    public static void main(String[] args) throws Exception {
+
+        Configuration conf = new Configuration();
+        Path inputPath;
+        Path outputPath;
+        FileSystem fs;
+        String[] header;
+        boolean toBinary;
+        Job job;
+
+        try {
+
+            if (args[0].equals("toBinary")) {
+                toBinary = true;
+            } else {
+                if (args[0].equals("toText")) {
+                    toBinary = false;
+                } else {
+                    System.out.println("The first argument must be toBinary "
+                            + "or toText.");
+                    System.exit(1);
+                    return;
+                }
+            }
+
+            inputPath = new Path(args[1]);
+            outputPath = new Path(args[2]);
+
+            fs = FileSystem.get(new URI(outputPath.toString()), conf);
+
+            // Delete the output directory if it already exists.
+            fs.delete(outputPath, true);
+
+            // Create job
+            job = new Job(conf, toBinary ? "ConvertMatrixToBinary"
+                    : "ConvertMatrixToText");
+            job.setJarByClass(ConvertMatrix.class);
+
+            if (toBinary) {
+
+                // The header of the matrix becomes the metadata of the files.
+                header = MatrixFormat.findHeader(conf, inputPath);
+
+                job.setMapperClass(MapToBinary.class);
+                job.setInputFormatClass(TextInputFormat.class);
+                MatrixFormat.setBinaryOutput(job, header[0].substring(1),
+                        header[1], header[2]);
+
+            } else {
+
+                job.setMapperClass(MapToText.class);
+                MatrixFormat.setBinaryInput(job);
+                job.setOutputKeyClass(Text.class);
+                job.setOutputValueClass(Text.class);
+                job.setOutputFormatClass(TextOutputFormat.class);
+            }
+
+            fs.close();
+
+            // Each record is converted alone, no reduce is needed.
+            job.setNumReduceTasks(0);
+
+            // Input
+            FileInputFormat.addInputPath(job, inputPath);
+
+            // Output
+            FileOutputFormat.setOutputPath(job, outputPath);
+
+            // Execute job
+            if (!job.waitForCompletion(true)) {
+                throw new IOException("The job " + job.getJobName()
+                        + " failed.");
+            }
+
+
+        } catch (Exception e) {
+            System.out.println(e);
+            System.exit(1);
+        }
+
+    }
+}
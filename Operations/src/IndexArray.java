@@ -0,0 +1,203 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package operations;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+
+
+/**
+ * The indexes of an element of an array with many axes, or the dimensions
+ * of the array when it is the key of the header. It is the key type of the
+ * sum over the axes. The header is serialized with a first byte smaller
+ * than the first byte of an element and the indexes are never negative, so
+ * the serialized keys are sorted by comparing their bytes.
+ *
+ * @version 1.0 17 Oct 2026
+ * @author David Souza
+ */
+
+
+public class IndexArray implements WritableComparable<IndexArray> {
+
+    private boolean header;
+    private char type;
+    private int size = 0;
+    private int[] indexes = new int[8];
+
+
+    public IndexArray() {
+    }
+
+
+    /**
+     * Remove the indexes and set the type of the array (A or B) and if the
+     * key is the header.
+     */
+    public void clear(char type, boolean header) {
+        this.type = type;
+        this.header = header;
+        size = 0;
+    }
+
+
+    public void add(int index) {
+
+        if (size == indexes.length) {
+            indexes = Arrays.copyOf(indexes, 2 * size);
+        }
+
+        indexes[size++] = index;
+    }
+
+
+    public boolean isHeader() {
+        return header;
+    }
+
+
+    public char getType() {
+        return type;
+    }
+
+
+    public int size() {
+        return size;
+    }
+
+
+    public int get(int i) {
+        return indexes[i];
+    }
+
+
+    public void write(DataOutput out) throws IOException {
+
+        out.writeByte(header ? 0 : 1);
+        out.writeByte(type);
+        out.writeInt(size);
+
+        for (int i = 0; i < size; i++) {
+            out.writeInt(indexes[i]);
+        }
+    }
+
+
+    public void readFields(DataInput in) throws IOException {
+
+        header = in.readByte() == 0;
+        type = (char) in.readByte();
+        size = 0;
+
+        for (int i = in.readInt(); i > 0; i--) {
+            add(in.readInt());
+        }
+    }
+
+
+    public int compareTo(IndexArray other) {
+
+        if (header != other.header) {
+            return header ? -1 : 1;
+        }
+
+        if (type != other.type) {
+            return type < other.type ? -1 : 1;
+        }
+
+        if (size != other.size) {
+            return size < other.size ? -1 : 1;
+        }
+
+        for (int i = 0; i < size; i++) {
+            if (indexes[i] != other.indexes[i]) {
+                return indexes[i] < other.indexes[i] ? -1 : 1;
+            }
+        }
+
+        return 0;
+    }
+
+
+    public boolean equals(Object other) {
+
+        if (!(other instanceof IndexArray)) {
+            return false;
+        }
+
+        return compareTo((IndexArray) other) == 0;
+    }
+
+
+    public int hashCode() {
+
+        int hash = header ? 1 : type;
+
+        for (int i = 0; i < size; i++) {
+            hash = hash * 31 + indexes[i];
+        }
+
+        return hash;
+    }
+
+
+    /**
+     * The line of the text format: type,index,... for an element and
+     * #type,dimension,... for the header.
+     */
+    public String toString() {
+
+        StringBuilder line = new StringBuilder();
+
+        if (header) {
+            line.append('#');
+        }
+
+        line.append(type);
+
+        for (int i = 0; i < size; i++) {
+            line.append(',').append(indexes[i]);
+        }
+
+        return line.toString();
+    }
+
+
+    /**
+     * Compare the serialized keys without deserializing them.
+     */
+    public static class Comparator extends WritableComparator {
+
+        public Comparator() {
+            super(IndexArray.class);
+        }
+
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2,
+                int l2) {
+            return compareBytes(b1, s1, l1, b2, s2, l2);
+        }
+    }
+
+
+    static {
+        WritableComparator.define(IndexArray.class, new Comparator());
+    }
+}
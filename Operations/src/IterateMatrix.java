@@ -0,0 +1,493 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package operations;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.filecache.DistributedCache;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+
+/**
+ * This software applies the same operators to a state vector in many steps
+ * using Apache Hadoop. Each operator U is partitioned once by blocks of rows
+ * in sorted binary files. A step is a job without reduce tasks: each map
+ * task reads one block of rows of U, keeps the vector psi in memory and
+ * writes the rows of U * psi, so only psi is sent to the tasks and nothing
+ * of U goes through the shuffle.
+ *
+ * @version 1.0 17 Oct 2026
+ * @author David Souza
+ */
+
+
+public class IterateMatrix {
+
+    /*
+     * Bytes of an element of the vector in memory: the real and the
+     * imaginary parts.
+     */
+    private static final long BYTES_PER_ELEMENT = 16;
+
+    /*
+     * Minimum number of arguments: the steps, psi, the output and one
+     * operator.
+     */
+    private static final int ARGS_LENGTH = 4;
+
+
+    /**
+     * Send the elements of the operator to the reduce task of its block of
+     * rows. The blocks have the same number of rows.
+     */
+    public static class RowPartitioner extends
+            Partitioner<LongPair, ComplexWritable> implements Configurable {
+
+        private Configuration conf;
+        private long numberRows;
+
+        public void setConf(Configuration conf) {
+            this.conf = conf;
+            numberRows = Math.max(conf.getLong("numberRowsOutput", 1), 1);
+        }
+
+        public Configuration getConf() {
+            return conf;
+        }
+
+        public int getPartition(LongPair key, ComplexWritable value,
+                int numPartitions) {
+            return (int) Math.min(key.getRow() * numPartitions / numberRows,
+                    numPartitions - 1);
+        }
+    }
+
+
+    public static class MapPartition extends
+            Mapper<LongWritable, Text, LongPair, ComplexWritable> {
+
+        private LongPair outputKey = new LongPair();
+        private ComplexWritable outputValue = new ComplexWritable();
+
+        public void map(LongWritable key, Text value, Context context)
+                throws IOException, InterruptedException {
+
+            // "," is the delimiter used in the input file.
+            String[] records = value.toString().split(",");
+
+            // The header is written from the configuration.
+            if (records.length != 4 || records[0].indexOf("#") > -1) {
+                return;
+            }
+
+            outputKey.set(Long.parseLong(records[1]), Long.parseLong(
+                    records[2]));
+            outputValue.set(records[3]);
+            context.write(outputKey, outputValue);
+        }
+    }
+
+
+    public static class BinaryMapPartition extends
+            MatrixFormat.BinaryMapper<LongPair, ComplexWritable> {
+
+        public void map(LongPair key, ComplexWritable value, Context context)
+                throws IOException, InterruptedException {
+            context.write(key, value);
+        }
+    }
+
+
+    /**
+     * The files of a partitioned operator are not split, so all the
+     * elements of a row are read by the same map task, in order.
+     */
+    public static class PartitionInputFormat extends
+            SequenceFileInputFormat<LongPair, ComplexWritable> {
+
+        protected boolean isSplitable(JobContext context, Path file) {
+            return false;
+        }
+    }
+
+
+    /*
+     * The vector of the last job read in this JVM. With the reuse of the
+     * JVM the map tasks of a step read psi only once.
+     */
+    private static String vectorJob;
+    private static double[] vectorReal;
+    private static double[] vectorImaginary;
+
+
+    /**
+     * Read the vector psi of the distributed cache in dense arrays.
+     */
+    private static synchronized void loadVector(Configuration conf,
+            String jobId, int size) throws IOException {
+
+        FileSystem fs = FileSystem.getLocal(conf);
+        ComplexWritable element = new ComplexWritable();
+        MatrixFormat.LineReader br;
+        String line;
+        String[] records;
+        int row;
+
+        if (jobId.equals(vectorJob)) {
+            return;
+        }
+
+        vectorReal = new double[size];
+        vectorImaginary = new double[size];
+
+        for (Path file : DistributedCache.getLocalCacheFiles(conf)) {
+            br = new MatrixFormat.LineReader(conf, fs, file);
+
+            while ((line = br.readLine()) != null) {
+                records = line.split(",");
+
+                if (records.length != 4 || records[0].indexOf("#") > -1) {
+                    continue;
+                }
+
+                element.set(records[3]);
+                row = Integer.parseInt(records[1]);
+                vectorReal[row] += element.getReal();
+                vectorImaginary[row] += element.getImaginary();
+            }
+
+            br.close();
+        }
+
+        vectorJob = jobId;
+    }
+
+
+    /**
+     * A step: the elements of a block of rows of U arrive sorted by the row,
+     * so each row of U * psi is written when the next row starts.
+     */
+    public static class MapStep extends
+            MatrixFormat.BinaryMapper<Writable, Writable> {
+
+        private String typeMatrixOutput;
+        private boolean binaryOutput;
+        private double[] real;
+        private double[] imaginary;
+        private long row = -1;
+        private double sumReal;
+        private double sumImaginary;
+        private LongPair outputKey = new LongPair();
+        private ComplexWritable outputValue = new ComplexWritable();
+
+        protected void setup(Context context) throws IOException,
+                InterruptedException {
+
+            Configuration conf = context.getConfiguration();
+
+            super.setup(context);
+            typeMatrixOutput = conf.get("typeMatrixOutput");
+            binaryOutput = conf.getBoolean("binaryOutput", false);
+
+            loadVector(conf, context.getJobID().toString(), Integer.parseInt(
+                    columns));
+            real = vectorReal;
+            imaginary = vectorImaginary;
+
+            // Write the vector dimension in the file.
+            if (!binaryOutput && context.getTaskAttemptID().getTaskID()
+                    .getId() == 0) {
+                context.write(null, new Text("#" + typeMatrixOutput + ","
+                        + conf.get("numberRowsOutput") + ",1"));
+            }
+        }
+
+        public void map(LongPair key, ComplexWritable value, Context context)
+                throws IOException, InterruptedException {
+
+            int column = (int) key.getColumn();
+
+            if (key.getRow() != row) {
+                writeRow(context);
+                row = key.getRow();
+            }
+
+            sumReal += ComplexMath.multiplyReal(value.getReal(),
+                    value.getImaginary(), real[column], imaginary[column]);
+            sumImaginary += ComplexMath.multiplyImaginary(value.getReal(),
+                    value.getImaginary(), real[column], imaginary[column]);
+        }
+
+        protected void cleanup(Context context) throws IOException,
+                InterruptedException {
+            writeRow(context);
+        }
+
+        private void writeRow(Context context) throws IOException,
+                InterruptedException {
+
+            if (row > -1 && (sumReal != 0.0d || sumImaginary != 0.0d)) {
+
+                if (binaryOutput) {
+                    outputKey.set(row, 0);
+                    outputValue.set(sumReal, sumImaginary);
+                    context.write(outputKey, outputValue);
+                } else {
+                    context.write(null, new Text(typeMatrixOutput + ","
+                            + Long.toString(row) + ",0," + Double.toString(
+                            sumReal) + "j" + Double.toString(sumImaginary)));
+                }
+            }
+
+            sumReal = 0.0d;
+            sumImaginary = 0.0d;
+        }
+    }
+
+
+    /**
+     * Partition the operator of inputPath in blocks of rows in outputPath.
+     * It is done once and the result is read by all the steps. Return false
+     * if the folder has a Kronecker operator, that is not partitioned, and
+     * throw an IOException if the job fails.
+     */
+    public static boolean prepare(Configuration conf, Path inputPath,
+            Path outputPath) throws Exception {
+
+        FileSystem fs = outputPath.getFileSystem(conf);
+        String[] header;
+        Job job;
+
+        if (KronOperator.isOperator(conf, inputPath)) {
+            return false;
+        }
+
+        header = MatrixFormat.findHeader(conf, inputPath);
+
+        // Delete the output directory if it already exists.
+        fs.delete(outputPath, true);
+
+        // Create job
+        job = new Job(conf, "IterateMatrixPrepare");
+        job.setJarByClass(IterateMatrix.class);
+
+        // The elements are sorted by the row and the column.
+        job.setReducerClass(Reducer.class);
+        job.setPartitionerClass(RowPartitioner.class);
+
+        // Set Map output Key/Value type
+        job.setMapOutputKeyClass(LongPair.class);
+        job.setMapOutputValueClass(ComplexWritable.class);
+
+        MatrixFormat.setBinaryOutput(job, header[0].substring(1), header[1],
+                header[2]);
+
+        job.setNumReduceTasks(ReducePlanner.numberReduceTasks(conf,
+                ReducePlanner.sample(conf, inputPath).elements()));
+
+        if (MatrixFormat.isBinary(conf, inputPath)) {
+            job.setMapperClass(BinaryMapPartition.class);
+            MatrixFormat.setBinaryInput(job);
+        } else {
+            job.setMapperClass(MapPartition.class);
+            job.setInputFormatClass(TextInputFormat.class);
+        }
+
+        // Input
+        FileInputFormat.addInputPath(job, inputPath);
+
+        // Output
+        FileOutputFormat.setOutputPath(job, outputPath);
+
+        // Execute job
+        if (!job.waitForCompletion(true)) {
+            throw new IOException("The job IterateMatrixPrepare failed.");
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Calculate U * psi, where U was partitioned by prepare, and write the
+     * vector of the given type in outputPath.
+     */
+    public static boolean step(Configuration conf, Path operatorPath,
+            Path psiPath, Path outputPath, String type) throws Exception {
+
+        FileSystem fs = outputPath.getFileSystem(conf);
+        FileSystem fsPsi = psiPath.getFileSystem(conf);
+        FileStatus[] status = fsPsi.listStatus(psiPath);
+        String[] header = MatrixFormat.findHeader(conf, operatorPath);
+        long limit = ReducePlanner.elementsInMemory(conf, "map",
+                BYTES_PER_ELEMENT);
+        boolean binary = MatrixFormat.isBinary(conf, psiPath);
+        Job job;
+
+        if (Long.parseLong(header[2]) > Math.min(limit, Integer.MAX_VALUE)) {
+            throw new IOException("The vector of " + header[2] + " elements "
+                    + "does not fit in the memory of a map task.");
+        }
+
+        conf.set("typeMatrixOutput", type);
+        conf.set("numberRowsOutput", header[1]);
+
+        // The map tasks of a step share the vector loaded in the JVM.
+        conf.setInt("mapred.job.reuse.jvm.num.tasks", -1);
+
+        // Delete the output directory if it already exists.
+        fs.delete(outputPath, true);
+
+        // Create job
+        job = new Job(conf, "IterateMatrixStep");
+        job.setJarByClass(IterateMatrix.class);
+
+        for (FileStatus stat : status) {
+            if (!stat.isDir() && MatrixFormat.isDataFile(stat.getPath())) {
+                DistributedCache.addCacheFile(stat.getPath().toUri(),
+                        job.getConfiguration());
+            }
+        }
+
+        job.setMapperClass(MapStep.class);
+        job.setInputFormatClass(PartitionInputFormat.class);
+        job.setNumReduceTasks(0);
+
+        // The output has the format of psi.
+        if (binary) {
+            MatrixFormat.setBinaryOutput(job, type, header[1], "1");
+        } else {
+            job.setOutputKeyClass(Writable.class);
+            job.setOutputValueClass(Writable.class);
+            job.setOutputFormatClass(TextOutputFormat.class);
+        }
+
+        // Input
+        FileInputFormat.addInputPath(job, operatorPath);
+
+        // Output
+        FileOutputFormat.setOutputPath(job, outputPath);
+
+        // Execute job
+        return job.waitForCompletion(true);
+    }
+
+
+    /**
+     * Run the operation with the given configuration. The arguments are the
+     * number of steps, psi, the output and the operators U_0 ... U_n; each
+     * step calculates U_0 * ... * U_n * psi.
+     */
+    public static void run(Configuration conf, String[] args)
+            throws Exception {
+
+        Path[] operators;
+        Path psiPath;
+        Path outputPath;
+        Path workPath;
+        Path nextPath;
+        FileSystem fs;
+        String type;
+        int steps;
+        int count = 0;
+
+        // Options like -D memoryFraction=F are set in the configuration.
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+
+        if (args.length < ARGS_LENGTH) {
+            throw new IllegalArgumentException("The program needs the "
+                    + "number of steps, psi, the output and at least one "
+                    + "operator.");
+        }
+
+        steps = Integer.parseInt(args[0]);
+        if (steps < 1) {
+            throw new IllegalArgumentException("The number of steps must "
+                    + "be positive.");
+        }
+
+        psiPath = new Path(args[1]);
+        outputPath = new Path(args[2]);
+        workPath = new Path(args[2] + "Iterate");
+        type = MatrixFormat.findHeader(conf, psiPath)[0].substring(1);
+        fs = outputPath.getFileSystem(conf);
+
+        fs.delete(workPath, true);
+
+        // The operators are partitioned before the first step.
+        operators = new Path[args.length - 3];
+        for (int j = 0; j < operators.length; j++) {
+            operators[j] = new Path(workPath, "u" + Integer.toString(j));
+
+            if (!prepare(new Configuration(conf), new Path(args[j + 3]),
+                    operators[j])) {
+                throw new IllegalArgumentException("The operator "
+                        + args[j + 3] + " is a Kronecker operator. Use "
+                        + "MultMatrix in each step.");
+            }
+        }
+
+        for (int i = 0; i < steps; i++) {
+            for (int j = operators.length - 1; j > -1; j--) {
+                // The vector is written in two folders in turn.
+                nextPath = new Path(workPath, "psi" + Integer.toString(
+                        count++ % 2));
+
+                if (!step(new Configuration(conf), operators[j], psiPath,
+                        nextPath, type)) {
+                    throw new IOException("The step " + (i + 1)
+                            + " failed.");
+                }
+
+                psiPath = nextPath;
+            }
+        }
+
+        fs.delete(outputPath, true);
+        fs.rename(psiPath, outputPath);
+        fs.delete(workPath, true);
+    }
+
+
+    public static void main(String[] args) throws Exception {
+
+        try {
+            run(new Configuration(), args);
+        } catch (Exception e) {
+            System.out.println(e);
+            System.exit(1);
+        }
+
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package operations;
+
+
+/**
+ * A sum of doubles with compensation of the rounding error (Kahan-Babuska
+ * summation). The error of the sum does not grow with the number of values,
+ * so the sum of 10^9 squares keeps almost all the digits of a double.
+ *
+ * @version 1.0 17 Oct 2026
+ * @author David Souza
+ */
+
+
+public class KahanSum {
+
+    private double sum = 0.0d;
+    private double compensation = 0.0d;
+
+
+    public void add(double value) {
+
+        double total = sum + value;
+
+        // The low-order bits lost by the addition.
+        if (Math.abs(sum) >= Math.abs(value)) {
+            compensation += (sum - total) + value;
+        } else {
+            compensation += (value - total) + sum;
+        }
+
+        sum = total;
+    }
+
+
+    public double get() {
+        return sum + compensation;
+    }
+
+
+    public void clear() {
+        sum = 0.0d;
+        compensation = 0.0d;
+    }
+}
@@ -15,28 +15,41 @@
 
 package operations;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.net.URI;
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.FileStatus;
-import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.conf.Configurable;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.filecache.DistributedCache;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
 import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Partitioner;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
 
 
 /**
@@ -50,6 +63,18 @@ import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
 
 public class KronMatrix {
 
+    /**
+     * Default number of threads that prepare the input files when both
+     * matrices are big.
+     */
+    private static final int DEFAULT_PREPARE_THREADS = 8;
+
+    /**
+     * Size in bytes of the buffers of the files read and written by the
+     * preparation of the input.
+     */
+    private static final int PREPARE_BUFFER_SIZE = 1048576;
+
     /**
      * Kronecker Index Equation:
      *
@@ -75,192 +100,190 @@ public class KronMatrix {
      */
 
     /**
-     * Number of elements that will be loaded in the RAM memory in reduce
-     * function.
+     * Counters of the plan of the driver, written by the map task with id 0.
      */
-    private static final long NUMBER_ELEMENTS_IN_MEMORY = 1000000;
+    public static enum KronCounter {
+        // Elements of the small matrix that fit in the heap of a map task.
+        MEMORY_LIMIT_ELEMENTS,
+        // Estimated elements of the smaller matrix.
+        SMALL_MATRIX_ELEMENTS,
+        // Elements of the small matrix read in the broadcast mode.
+        BROADCAST_ELEMENTS,
+        // Bytes of heap measured after the small matrix was read.
+        BROADCAST_BYTES
+    }
 
 
-    public static class Map extends Mapper<LongWritable, Text, Text, Text> {
-        public void map(LongWritable key, Text value, Context context)
-                throws IOException, InterruptedException {
+    /**
+     * Write the plan of the driver in the counters of the map task with
+     * id 0, so the job shows why the broadcast mode was used or not.
+     */
+    private static boolean countPlan(TaskInputOutputContext<?, ?, ?, ?>
+            context) {
 
-            String line = value.toString();
-            // "," is the delimiter used in the input file.
-            String[] records = line.split(",");
-            Text outputKey = new Text();
-            Text outputValue = new Text();
-            Configuration conf = context.getConfiguration();
-            // Number of elements of the matrix A
-            long numberElementsA = Long.parseLong(conf.get(
-                                        "numberElementsA"));
-            // Number of elements of the matrix B
-            long numberElementsB = Long.parseLong(conf.get(
-                                        "numberElementsB"));
-            // Number of parts that the matrix A was splitted
-            long numberOfParts = Long.parseLong(conf.get("numberOfParts"));
-            long partitionA;
+        Configuration conf = context.getConfiguration();
 
+        if (context.getTaskAttemptID().getTaskID().getId() != 0) {
+            return false;
+        }
 
-            if (numberElementsB <= NUMBER_ELEMENTS_IN_MEMORY) {
+        context.getCounter(KronCounter.MEMORY_LIMIT_ELEMENTS).increment(
+                conf.getLong("memoryLimitElements", 0));
+        context.getCounter(KronCounter.SMALL_MATRIX_ELEMENTS).increment(
+                conf.getLong("smallMatrixElements", 0));
 
-                if (records[0].equals("A")) {    // A is the left matrix.
+        return true;
+    }
 
-                    outputKey.set(records[1]);
-                    outputValue.set("A," + records[2] + "," + records[3] + ","
-                            + records[4]);
-                    context.write(outputKey, outputValue);
 
-                } else {
+    public static class Map extends
+            Mapper<LongWritable, Text, KronKey, Text> {
 
-                    if (records[0].equals("B")) {    // B is the right matrix.
+        private KronKey outputKey = new KronKey();
+        private Text outputValue = new Text();
 
-                        outputKey.set(records[1]);
-                        outputValue.set("B," + records[2] + "," + records[3]
-                                + "," + records[4]);
-                        context.write(outputKey, outputValue);
+        protected void setup(Context context) throws IOException,
+                InterruptedException {
+            countPlan(context);
+        }
 
-                    } else {
-                        // #A and #B are the header with the matrix dimension.
-                        if ((records[0].equals("#A"))
-                                || (records[0].equals("#B"))) {
+        public void map(LongWritable key, Text value, Context context)
+                throws IOException, InterruptedException {
 
-                            outputKey.set("-1");
-                            outputValue.set(records[1] + "," + records[2]);
-                            context.write(outputKey, outputValue);
-                        }
-                    }
-                }
+            String line = value.toString();
+            // "," is the delimiter used in the input file.
+            String[] records = line.split(",");
+
+            if (records[0].equals("A")) {    // A is the left matrix.
+
+                outputKey.set(Long.parseLong(records[1]), KronKey.MATRIX_A);
+                outputValue.set("A," + records[2] + "," + records[3] + ","
+                        + records[4]);
+                context.write(outputKey, outputValue);
 
             } else {
 
-                if (records[0].equals("A")) {    // A is the left matrix.
+                if (records[0].equals("B")) {    // B is the right matrix.
 
-                    outputKey.set(records[1]);
-                    outputValue.set("A," + records[2] + "," + records[3] + ","
-                            + records[4]);
+                    outputKey.set(Long.parseLong(records[1]),
+                            KronKey.MATRIX_B);
+                    outputValue.set("B," + records[2] + "," + records[3]
+                            + "," + records[4]);
                     context.write(outputKey, outputValue);
 
                 } else {
+                    // #A and #B are the header with the matrix dimension.
+                    if ((records[0].equals("#A"))
+                            || (records[0].equals("#B"))) {
 
-                    if (records[0].equals("B")) {    // B is the right matrix.
-
-                        partitionA = Long.parseLong(records[1])
-                                        % numberOfParts;
-
-                        outputKey.set(Long.toString(partitionA) + "_"
-                                + records[1]);
-                        outputValue.set("B," + records[2] + "," + records[3]
-                                + "," + records[4]);
+                        outputKey.set(KronKey.HEADER, KronKey.MATRIX_A);
+                        outputValue.set(records[1] + "," + records[2]);
                         context.write(outputKey, outputValue);
-
-                    } else {
-                        // #A and #B are the header with the matrix dimension.
-                        if ((records[0].equals("#A"))
-                                || (records[0].equals("#B"))) {
-
-                            outputKey.set("-1");
-                            outputValue.set(records[1] + "," + records[2]);
-                            context.write(outputKey, outputValue);
-                        }
                     }
                 }
-
-
             }
 
         }
     }
 
-    public static class Reduce extends Reducer<Text, Text, Text, Text> {
-        public void reduce(Text key, Iterable<Text> values, Context context)
-                throws IOException, InterruptedException {
+
+    /**
+     * The element of A of a key arrives before the elements of B, so the
+     * products are written while the elements of B are read and no element
+     * is kept in memory.
+     */
+    public static class Reduce extends
+            Reducer<KronKey, Text, Writable, Writable> {
+
+        public void reduce(KronKey key, Iterable<Text> values,
+                Context context) throws IOException, InterruptedException {
 
             String[] value;
-            String[] valA = new String[2];
             String[] valB = new String[2];
-            String[] coordinatesA = new String[3];
-            ArrayList<Text> valuesCache = new ArrayList<Text>();
-            long numberElementsB = 0;
+            long rowA = 0;
+            long columnA = 0;
+            double realA = 0.0d;
+            double imaginaryA = 0.0d;
+            double realB;
+            double imaginaryB;
             boolean findA = false;
 
             Configuration conf = context.getConfiguration();
             String typeMatrixOutput = conf.get("typeMatrixOutput");
+            boolean binaryOutput = conf.getBoolean("binaryOutput", false);
             long numberRowsB = Long.parseLong(conf.get("numberRowsB"));
             long numberColumnsB = Long.parseLong(conf.get("numberColumnsB"));
-            long totalNumberElementsB = Long.parseLong(conf.get(
-                                            "numberElementsB"));
             Text output = new Text();
-            String[] fullKey;
-            String keyA = "";
-            String partA = "";
-            long numberOfParts = (totalNumberElementsB
-                                    / NUMBER_ELEMENTS_IN_MEMORY);
             long rows = 1;
             long columns = 1;
 
 
-            if (!(key.toString().equals("-1"))) {
-
-                if (totalNumberElementsB > NUMBER_ELEMENTS_IN_MEMORY) {
-                    fullKey = key.toString().split("_");
-                    partA = fullKey[0];
-                    keyA = fullKey[1];
-                }
+            if (key.getElement() != KronKey.HEADER) {
 
                 for (Text val : values) {
 
-                    numberElementsB++;
+                    value = val.toString().split(",");
 
                     if (!findA) {
-                        value = val.toString().split(",", 2);
-                        if (value[0].equals("A")) {
-                            value = val.toString().split(",");
-                            valA = value[3].split("j");
-                            coordinatesA[1] = value[1];
-                            coordinatesA[2] = value[2];
-                            findA = true;
-                            numberElementsB--;
+                        if (!value[0].equals("A")) {
+                            throw new IOException("This key haven't a matrix "
+                                    + "A value");
                         }
-                    }
 
-                    Text writable = new Text();
-                    writable.set(val.toString());
-                    valuesCache.add(writable);
-                }
+                        valB = value[3].split("j");
+                        rowA = Long.parseLong(value[1]);
+                        columnA = Long.parseLong(value[2]);
+                        realA = Double.parseDouble(valB[0]);
+                        imaginaryA = Double.parseDouble(valB[1]);
+                        findA = true;
+                        continue;
+                    }
 
-                if ((valA[0] == null) && (valA[1] == null)) {
-                    throw new IOException("This key haven't a matrix A value");
-                }
+                    valB = value[3].split("j");
+                    realB = Double.parseDouble(valB[0]);
+                    imaginaryB = Double.parseDouble(valB[1]);
 
-                for (Text val : valuesCache) {
-                    value = val.toString().split(",");
-                    if (value[0].equals("B")) {
-                        valB = value[3].split("j");
+                    if (binaryOutput) {
 
-                        output.set(typeMatrixOutput + "," + Long.toString(
+                        context.write(new LongPair(
                             // Kronecker row equation
-                            numberRowsB * Long.parseLong(coordinatesA[1])
-                            + Long.parseLong(value[1]))
+                            numberRowsB * rowA + Long.parseLong(value[1]),
                             // Kronecker column equation
-                            + "," + Long.toString(numberColumnsB
-                            * Long.parseLong(coordinatesA[2])
-                            + Long.parseLong(value[2]))
-                            // Real value
-                            + "," + Double.toString(Double.parseDouble(valA[0])
-                            * Double.parseDouble(valB[0]))
-                            // Imaginary value
-                            + "j" + Double.toString(Double.parseDouble(valA[1])
-                            * Double.parseDouble(valB[1])));
-
-                        context.write(null, output);
+                            numberColumnsB * columnA
+                            + Long.parseLong(value[2])),
+                            new ComplexWritable(
+                            ComplexMath.multiplyReal(realA, imaginaryA,
+                            realB, imaginaryB),
+                            ComplexMath.multiplyImaginary(realA,
+                            imaginaryA, realB, imaginaryB)));
 
+                        continue;
                     }
 
+                    output.set(typeMatrixOutput + "," + Long.toString(
+                        // Kronecker row equation
+                        numberRowsB * rowA + Long.parseLong(value[1]))
+                        // Kronecker column equation
+                        + "," + Long.toString(numberColumnsB * columnA
+                        + Long.parseLong(value[2]))
+                        // Real value
+                        + "," + Double.toString(ComplexMath.multiplyReal(
+                        realA, imaginaryA, realB, imaginaryB))
+                        // Imaginary value
+                        + "j" + Double.toString(ComplexMath
+                        .multiplyImaginary(realA, imaginaryA, realB,
+                        imaginaryB)));
+
+                    context.write(null, output);
                 }
 
             } else {
 
+                // The dimensions of a binary output are in the metadata.
+                if (binaryOutput) {
+                    return;
+                }
+
                 for (Text val : values) {
                     value = val.toString().split(",");
                     rows *= Long.parseLong(value[0]);
@@ -275,385 +298,729 @@ public class KronMatrix {
     }
 
 
-    public static long prepareA(Configuration conf, FileSystem fsInput,
-            Path inputPath, Path newInputPath) {
+    /**
+     * Key of the Kronecker product: the number of an element of A and a
+     * tag. The tag of A is smaller, so the element of A is the first value
+     * of a group.
+     */
+    public static class KronKey implements WritableComparable<KronKey> {
+
+        public static final byte MATRIX_A = 0;
+        public static final byte MATRIX_B = 1;
 
-        long countA = 0;
-        BufferedReader br;
-        String oldPath;
-        String newPath;
-        String line;
-        String firstLine;
-        boolean newSize;
-        boolean verified;
-        String[] val;
-        String[] tempVal;
-        BufferedWriter bw;
-        FileStatus[] status;
-        FileUtil fu = new FileUtil();
+        // Element of the header with the dimensions.
+        public static final long HEADER = -1;
 
-        try {
+        private long element;
+        private byte tag;
 
-            // The names of all files in the input path
-            status = fsInput.listStatus(inputPath);
-
-            for (int i = 0; i < status.length; i++) {
-                br = new BufferedReader(new InputStreamReader(fsInput.open(
-                        status[i].getPath())));
-                oldPath = status[i].getPath().toString();
-                newPath = oldPath.replaceAll(inputPath.toString(),
-                            newInputPath.toString());
-                firstLine = "splitted";
-                newSize = false;
-                verified = false;
-                line = br.readLine();
-
-                // Empty file. Go to the next.
-                if (line == null) {
-                    continue;
+        public void set(long element, byte tag) {
+            this.element = element;
+            this.tag = tag;
+        }
+
+        public long getElement() {
+            return element;
+        }
+
+        public byte getTag() {
+            return tag;
+        }
+
+        public void write(DataOutput out) throws IOException {
+            out.writeLong(element);
+            out.writeByte(tag);
+        }
+
+        public void readFields(DataInput in) throws IOException {
+            element = in.readLong();
+            tag = in.readByte();
+        }
+
+        public int compareTo(KronKey other) {
+            if (element != other.element) {
+                return element < other.element ? -1 : 1;
+            }
+
+            return tag - other.tag;
+        }
+
+        public boolean equals(Object other) {
+            return other instanceof KronKey
+                    && compareTo((KronKey) other) == 0;
+        }
+
+        public int hashCode() {
+            // Only the element, so A and B of a group have the same hash.
+            return (int) (element ^ (element >>> 32));
+        }
+
+        public static class Comparator extends WritableComparator {
+
+            public Comparator() {
+                super(KronKey.class);
+            }
+
+            public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2,
+                    int l2) {
+
+                long element1 = readLong(b1, s1);
+                long element2 = readLong(b2, s2);
+
+                if (element1 != element2) {
+                    return element1 < element2 ? -1 : 1;
                 }
 
-                if (line.indexOf("A") > -1) {
-
-                    bw = new BufferedWriter(new OutputStreamWriter(
-                        fsInput.create(new Path(newPath), true)));
-
-                    while (line != null) {
-                        if (!(line.equals("")) && !(String.valueOf(
-                                line.charAt(0)).equals(" "))) {
-
-                            val = line.split(",", 3);
-                            if (!val[0].equals("#A")) {
-
-                                if (!newSize && !verified) {
-                                    tempVal = line.split(",");
-                                    verified = true;
-                                    if (tempVal.length < 5) {
-                                        newSize = true;
-                                    }
-                                }
-
-                                if (newSize) {
-                                    val[0] = "A," + Long.toString(countA) + ",";
-                                    if (firstLine.equals("")) {
-                                        bw.write("\n" + val[0] + val[1]
-                                                + "," + val[2]);
-                                    } else {
-                                        bw.write(val[0] + val[1]
-                                                + "," + val[2]);
-                                        firstLine = "";
-                                    }
-
-                                } else {
-                                    System.out.println("Wrong input format.");
-                                    System.exit(1);
-                                }
-
-                            } else {
-                                bw.write(line);
-                                firstLine = "";
-                                countA--;
-                            }
-
-                            if (newSize || val[1].indexOf("_") == -1) {
-
-                                countA++;
-
-                            } else {
-                                tempVal = val[1].split("_");
-                                if (countA < Long.parseLong(tempVal[1])) {
-                                    countA = Long.parseLong(tempVal[1]) + 1;
-                                }
-                            }
-                        }
+                return b1[s1 + 8] - b2[s2 + 8];
+            }
+        }
+
+        static {
+            WritableComparator.define(KronKey.class, new Comparator());
+        }
+    }
 
-                        line = br.readLine();
 
-                    }
+    /**
+     * Group the keys only by the element of A.
+     */
+    public static class KronGroupingComparator extends WritableComparator {
+
+        public KronGroupingComparator() {
+            super(KronKey.class);
+        }
+
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2,
+                int l2) {
+            // The tag is the last byte of the key.
+            return compareBytes(b1, s1, l1 - 1, b2, s2, l2 - 1);
+        }
+    }
+
+
+    /**
+     * Every element of A is multiplied by the same elements of B, so all keys
+     * have the same work. The keys are sent to the reduce tasks in ranges of
+     * the same size.
+     */
+    public static class Partition extends Partitioner<KronKey, Text>
+            implements Configurable {
+
+        private Configuration conf;
+        private long numberElementsA;
+
+        public void setConf(Configuration conf) {
+            this.conf = conf;
+            numberElementsA = Math.max(conf.getLong("numberElementsA", 1), 1);
+        }
+
+        public Configuration getConf() {
+            return conf;
+        }
+
+        public int getPartition(KronKey key, Text value, int numPartitions) {
+
+            if (key.getElement() == KronKey.HEADER) {
+                return 0;
+            }
+
+            return (int) Math.min(key.getElement() * numPartitions
+                    / numberElementsA, numPartitions - 1);
+        }
+    }
 
-                    if (newSize) {
-                        bw.close();
 
-                    } else {
-                        bw.close();
-                        fsInput.delete(new Path(newPath), true);
-                        fu.copy(fsInput, status[i].getPath(), fsInput,
-                                newInputPath, false, true, conf);
+    /**
+     * The small matrix of the broadcast mode, read from the distributed
+     * cache. Each element of the big matrix is multiplied by all elements
+     * of the small matrix in the map task, so the input is not rewritten
+     * and no reduce is needed.
+     */
+    public static class SmallMatrix {
+
+        /**
+         * Bytes of heap used by an element at most: the row, the column and
+         * the real and imaginary parts are 32 bytes, and while the arrays
+         * double the old and the new arrays have three slots per element.
+         * The products use 16 bytes when the copies are already free.
+         */
+        public static final long BYTES_PER_ELEMENT = 3 * (8 + 8 + 8 + 8);
+
+        private int size = 0;
+        private long[] rows = new long[1024];
+        private long[] columns = new long[1024];
+        private double[] real = new double[1024];
+        private double[] imaginary = new double[1024];
+        private double[] productReal;
+        private double[] productImaginary;
+        private boolean broadcastB;
+        private long numberRowsB;
+        private long numberColumnsB;
+        private boolean binaryOutput;
+        private String typeMatrixOutput;
+        private LongPair index = new LongPair();
+        private ComplexWritable element = new ComplexWritable();
+        private Text output = new Text();
+
+        public SmallMatrix(Configuration conf) throws IOException {
+
+            String type = conf.get("broadcastType");
+            String line;
+            String[] records;
+            MatrixFormat.LineReader br;
+
+            broadcastB = type.equals("B");
+            numberRowsB = conf.getLong("numberRowsB", 1);
+            numberColumnsB = conf.getLong("numberColumnsB", 1);
+            binaryOutput = conf.getBoolean("binaryOutput", false);
+            typeMatrixOutput = conf.get("typeMatrixOutput");
+
+            for (Path file : DistributedCache.getLocalCacheFiles(conf)) {
+                br = new MatrixFormat.LineReader(conf,
+                        FileSystem.getLocal(conf), file);
+
+                while ((line = br.readLine()) != null) {
+                    records = line.split(",");
+
+                    if (records.length != 4 || !records[0].equals(type)) {
+                        continue;
+                    }
+
+                    if (size == rows.length) {
+                        rows = Arrays.copyOf(rows, 2 * size);
+                        columns = Arrays.copyOf(columns, 2 * size);
+                        real = Arrays.copyOf(real, 2 * size);
+                        imaginary = Arrays.copyOf(imaginary, 2 * size);
                     }
 
+                    element.set(records[3]);
+                    rows[size] = Long.parseLong(records[1]);
+                    columns[size] = Long.parseLong(records[2]);
+                    real[size] = element.getReal();
+                    imaginary[size] = element.getImaginary();
+                    size++;
                 }
 
                 br.close();
+            }
+
+            productReal = new double[size];
+            productImaginary = new double[size];
+        }
 
+        /**
+         * Read the small matrix and measure the heap it uses.
+         */
+        public static SmallMatrix load(TaskInputOutputContext<?, ?, ?, ?>
+                context) throws IOException {
+
+            Runtime runtime = Runtime.getRuntime();
+            long before = runtime.totalMemory() - runtime.freeMemory();
+            SmallMatrix matrix = new SmallMatrix(context.getConfiguration());
+            long after = runtime.totalMemory() - runtime.freeMemory();
+
+            if (countPlan(context)) {
+                context.getCounter(KronCounter.BROADCAST_ELEMENTS).increment(
+                        matrix.size);
+                context.getCounter(KronCounter.BROADCAST_BYTES).increment(
+                        Math.max(after - before, 0));
             }
 
+            return matrix;
+        }
 
-        } catch (Exception e) {
-            System.out.println(e);
+        /**
+         * The map task with id 0 writes the header of a text output.
+         */
+        public void writeHeader(Mapper<?, ?, Writable, Writable>.Context
+                context) throws IOException, InterruptedException {
+
+            Configuration conf = context.getConfiguration();
+
+            if (!binaryOutput
+                    && context.getTaskAttemptID().getTaskID().getId() == 0) {
+                context.write(null, new Text("#" + typeMatrixOutput + ","
+                        + conf.get("numberRowsOutput") + ","
+                        + conf.get("numberColumnsOutput")));
+            }
         }
 
-        return countA;
-    }
+        /**
+         * Multiply an element of the big matrix by all elements of the small
+         * matrix and write the products.
+         */
+        public void multiply(Mapper<?, ?, Writable, Writable>.Context
+                context, long row, long column, double re, double im)
+                throws IOException, InterruptedException {
 
+            long rowOutput;
+            long columnOutput;
 
-    public static long prepareB(Configuration conf, FileSystem fsInput,
-            Path inputPath, Path newInputPath, long countA) {
+            ComplexMath.scale(re, im, real, imaginary, productReal,
+                    productImaginary, size);
 
-        long countB = 0;
-        BufferedReader br;
-        String oldPath;
-        String newPath;
-        String line;
-        String firstLine;
-        boolean newSize;
-        boolean verified;
-        String[] val;
-        String[] tempVal;
-        BufferedWriter bw;
-        FileStatus[] status;
-        FileUtil fu = new FileUtil();
+            for (int i = 0; i < size; i++) {
 
-        try {
+                // Kronecker row and column equations.
+                if (broadcastB) {
+                    rowOutput = numberRowsB * row + rows[i];
+                    columnOutput = numberColumnsB * column + columns[i];
+                } else {
+                    rowOutput = numberRowsB * rows[i] + row;
+                    columnOutput = numberColumnsB * columns[i] + column;
+                }
 
-            // The names of all files in the input path
-            status = fsInput.listStatus(inputPath);
-            for (int i = 0; i < status.length; i++) {
-                br = new BufferedReader(new InputStreamReader(fsInput.open(
-                        status[i].getPath())));
-                oldPath = status[i].getPath().toString();
-                newPath = oldPath.replaceAll(inputPath.toString(),
-                            newInputPath.toString());
-                firstLine = "splitted";
-                newSize = false;
-                verified = false;
-                line = br.readLine();
-
-                // Empty file. Go to the next.
-                if (line == null) {
+                if (binaryOutput) {
+                    index.set(rowOutput, columnOutput);
+                    element.set(productReal[i], productImaginary[i]);
+                    context.write(index, element);
                     continue;
                 }
 
-                if (line.indexOf("#B") > -1) {
-                    String[] vals = line.split(",");
-                    conf.set("numberRowsB", vals[1]);
-                    conf.set("numberColumnsB", vals[2]);
-                }
+                output.set(typeMatrixOutput + "," + Long.toString(rowOutput)
+                        + "," + Long.toString(columnOutput) + ","
+                        + Double.toString(productReal[i]) + "j"
+                        + Double.toString(productImaginary[i]));
+                context.write(null, output);
+            }
+        }
+    }
 
-                if (line.indexOf("B") > -1) {
-
-                    bw = new BufferedWriter(new OutputStreamWriter(
-                        fsInput.create(new Path(newPath), true)));
-
-                    while (line != null) {
-                        if (!(line.equals("")) && !(String.valueOf(
-                                line.charAt(0)).equals(" "))) {
-
-                            val = line.split(",", 2);
-
-                            if (!val[0].equals("#B")) {
-
-                                if (!newSize && !verified) {
-                                    tempVal = line.split(",");
-                                    verified = true;
-                                    if (tempVal.length < 5) {
-                                        newSize = true;
-                                    }
-                                }
-
-                                if (newSize) {
-                                    if (firstLine.equals("")) {
-                                        for (long j = 0; j < countA; j++) {
-                                            val[0] = "B," + Long.toString(j)
-                                                        + ",";
-                                            bw.write("\n" + val[0] + val[1]);
-                                        }
-
-                                    } else {
-                                        val[0] = "B,0,";
-                                        bw.write(val[0] +   val[1]);
-                                        for (long j = 1; j < countA; j++) {
-                                            val[0] = "B," + Long.toString(j)
-                                                        + ",";
-                                            bw.write("\n" + val[0] + val[1]);
-                                        }
-                                        firstLine = "";
-                                    }
-                                } else {
-                                    System.out.println("Wrong input format.");
-                                    System.exit(1);
-                                }
-
-                            } else {
-                                bw.write(line);
-                                firstLine = "";
-                                countB--;
-                            }
-
-                            countB++;
-                        }
 
-                        line = br.readLine();
+    public static class MapBroadcast extends
+            Mapper<LongWritable, Text, Writable, Writable> {
 
-                    }
+        private SmallMatrix matrix;
+        private String typeBig;
+        private ComplexWritable element = new ComplexWritable();
 
-                    if (newSize) {
-                        bw.close();
+        protected void setup(Context context) throws IOException,
+                InterruptedException {
 
-                    } else {
-                        bw.close();
-                        fsInput.delete(new Path(newPath), true);
-                        fu.copy(fsInput, status[i].getPath(), fsInput,
-                                newInputPath, false, true, conf);
-                    }
+            matrix = SmallMatrix.load(context);
+            typeBig = context.getConfiguration().get("broadcastType")
+                    .equals("B") ? "A" : "B";
+            matrix.writeHeader(context);
+        }
 
-                }
+        public void map(LongWritable key, Text value, Context context)
+                throws IOException, InterruptedException {
 
-                br.close();
+            // "," is the delimiter used in the input file.
+            String[] records = value.toString().split(",");
 
+            // The headers are known by the driver.
+            if (records.length != 4 || !records[0].equals(typeBig)) {
+                return;
             }
 
+            element.set(records[3]);
+            matrix.multiply(context, Long.parseLong(records[1]),
+                    Long.parseLong(records[2]), element.getReal(),
+                    element.getImaginary());
+        }
+    }
 
-        } catch (Exception e) {
-            System.out.println(e);
+
+    public static class BinaryMapBroadcast extends
+            MatrixFormat.BinaryMapper<Writable, Writable> {
+
+        private SmallMatrix matrix;
+
+        protected void setup(Context context) throws IOException,
+                InterruptedException {
+
+            super.setup(context);
+            matrix = SmallMatrix.load(context);
         }
 
-        return countB;
+        public void map(LongPair key, ComplexWritable value, Context context)
+                throws IOException, InterruptedException {
+
+            matrix.multiply(context, key.getRow(), key.getColumn(),
+                    value.getReal(), value.getImaginary());
+        }
     }
 
 
-    public static long replicateA(Configuration conf, FileSystem fsInput,
-            Path inputPath, Path newInputPath, long countB) {
-
-        long numberOfParts = 1;
-        BufferedReader br;
-        String oldPath;
-        String newPath;
-        String line;
-        String firstLine;
-        boolean newSize;
-        boolean verified;
-        String[] val;
-        String[] tempVal;
-        BufferedWriter bw;
-        FileStatus[] status;
-        String temp;
-        FileUtil fu = new FileUtil();
+    /**
+     * Calculate A (tensor) B in the map tasks when the elements of A or B
+     * fit in the heap of a map task. The small matrix is sent to all map
+     * tasks with the distributed cache and the big matrix is the input of
+     * the job, so the elements of A are not replicated. The output has no
+     * reduce, so its files are named part-m-*. Return false if both
+     * matrices are big.
+     */
+    public static boolean productBroadcast(Configuration conf,
+            Path inputPath, Path outputPath, boolean binary)
+            throws Exception {
+
+        // broadcastSize is an optional limit for the bytes of the files.
+        long broadcastSize = conf.getLong("broadcastSize", Long.MAX_VALUE);
+        long limit = ReducePlanner.elementsInMemory(conf, "map",
+                conf.getLong("bytesPerElement", SmallMatrix.BYTES_PER_ELEMENT));
+        long sizeA = 0;
+        long sizeB = 0;
+        long elementsA;
+        long elementsB;
+        long[] dimA = {1, 1};
+        long[] dimB = {1, 1};
+        List<Path> filesA = new ArrayList<Path>();
+        List<Path> filesB = new ArrayList<Path>();
+        List<Path> small;
+        List<Path> big;
+        String type;
+        String[] header;
+        FileSystem fs = inputPath.getFileSystem(conf);
+        FileStatus[] status = fs.listStatus(inputPath);
+        Job job;
+
+        for (FileStatus stat : status) {
+            if (stat.isDir() || !MatrixFormat.isDataFile(stat.getPath())) {
+                continue;
+            }
+
+            type = MatrixFormat.fileType(conf, fs, stat.getPath());
+            header = MatrixFormat.readHeader(conf, fs, stat.getPath());
+
+            if ("A".equals(type)) {
+                filesA.add(stat.getPath());
+                sizeA += stat.getLen();
+                if (header != null) {
+                    dimA[0] = Long.parseLong(header[1]);
+                    dimA[1] = Long.parseLong(header[2]);
+                }
+            } else {
+                if ("B".equals(type)) {
+                    filesB.add(stat.getPath());
+                    sizeB += stat.getLen();
+                    if (header != null) {
+                        dimB[0] = Long.parseLong(header[1]);
+                        dimB[1] = Long.parseLong(header[2]);
+                    }
+                }
+            }
+        }
+
+        elementsA = (long) Math.ceil(ReducePlanner.sample(conf, fs, filesA)
+                .elements());
+        elementsB = (long) Math.ceil(ReducePlanner.sample(conf, fs, filesB)
+                .elements());
+        conf.setLong("memoryLimitElements", limit);
+        conf.setLong("smallMatrixElements", Math.min(elementsA, elementsB));
+
+        // Broadcast the smaller matrix if it fits in the heap.
+        if (elementsB <= elementsA && elementsB <= limit
+                && sizeB <= broadcastSize) {
+            conf.set("broadcastType", "B");
+            small = filesB;
+            big = filesA;
+        } else {
+            if (elementsA <= limit && sizeA <= broadcastSize) {
+                conf.set("broadcastType", "A");
+                small = filesA;
+                big = filesB;
+            } else {
+                return false;
+            }
+        }
+
+        conf.setLong("numberRowsB", dimB[0]);
+        conf.setLong("numberColumnsB", dimB[1]);
+        conf.setLong("numberRowsOutput", dimA[0] * dimB[0]);
+        conf.setLong("numberColumnsOutput", dimA[1] * dimB[1]);
+
+        // Delete the output directory if it already exists.
+        fs.delete(outputPath, true);
+
+        // Create job
+        job = new Job(conf, "KroneckerProductBroadcast");
+        job.setJarByClass(KronMatrix.class);
+
+        for (Path file : small) {
+            DistributedCache.addCacheFile(file.toUri(),
+                    job.getConfiguration());
+        }
+
+        // Specify key / value
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(Text.class);
+
+        // Each element of the big matrix is multiplied alone.
+        job.setNumReduceTasks(0);
+
+        if (binary) {
+            job.setMapperClass(BinaryMapBroadcast.class);
+            MatrixFormat.setBinaryInput(job);
+            MatrixFormat.setBinaryOutput(job, conf.get("typeMatrixOutput"),
+                    Long.toString(dimA[0] * dimB[0]),
+                    Long.toString(dimA[1] * dimB[1]));
+        } else {
+            job.setMapperClass(MapBroadcast.class);
+            job.setInputFormatClass(TextInputFormat.class);
+            job.setOutputFormatClass(TextOutputFormat.class);
+        }
+
+        // Input
+        for (Path file : big) {
+            FileInputFormat.addInputPath(job, file);
+        }
+
+        // Output
+        FileOutputFormat.setOutputPath(job, outputPath);
+
+        // Execute job
+        if (!job.waitForCompletion(true)) {
+            throw new IOException("The job KroneckerProductBroadcast failed.");
+        }
+
+        return true;
+    }
+
+
+    /**
+     * A line of the input with an element or a header. Empty lines and
+     * lines that start with a space are ignored.
+     */
+    private static boolean isLine(String line) {
+        return !line.equals("") && line.charAt(0) != ' ';
+    }
+
+
+    /**
+     * Run the tasks in at most prepareThreads threads and return their
+     * results in the same order.
+     */
+    private static <T> List<T> runAll(Configuration conf,
+            List<Callable<T>> tasks) throws Exception {
+
+        List<T> results = new ArrayList<T>();
+        ExecutorService executor;
+
+        if (tasks.isEmpty()) {
+            return results;
+        }
+
+        executor = Executors.newFixedThreadPool(Math.min(tasks.size(),
+                Math.max(conf.getInt("prepareThreads",
+                DEFAULT_PREPARE_THREADS), 1)));
 
         try {
+            for (Future<T> result : executor.invokeAll(tasks)) {
+                results.add(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
 
-            // The names of all files in the input path
-            status = fsInput.listStatus(newInputPath);
-            if (countB > NUMBER_ELEMENTS_IN_MEMORY) {
+        return results;
+    }
 
-                if (countB % NUMBER_ELEMENTS_IN_MEMORY == 0) {
-                    numberOfParts = (countB / NUMBER_ELEMENTS_IN_MEMORY);
-                } else {
-                    numberOfParts = (countB / NUMBER_ELEMENTS_IN_MEMORY) + 1;
-                }
 
-                for (int i = 0; i < status.length; i++) {
-                    br = new BufferedReader(new InputStreamReader(fsInput.open(
-                            status[i].getPath())));
-                    oldPath = status[i].getPath().toString();
-                    newPath = oldPath + "InPieces";
-                    firstLine = "splitted";
-                    newSize = false;
-                    verified = false;
-                    line = br.readLine();
-
-                    // Empty file. Go to the next.
-                    if (line == null) {
-                        continue;
+    /**
+     * Return the data files of the input with the matrix of the given type.
+     */
+    private static List<Path> filesOf(Configuration conf, FileSystem fs,
+            Path inputPath, String type) throws IOException {
+
+        List<Path> files = new ArrayList<Path>();
+
+        for (FileStatus stat : fs.listStatus(inputPath)) {
+            if (!stat.isDir() && MatrixFormat.isDataFile(stat.getPath())
+                    && type.equals(MatrixFormat.fileType(conf, fs,
+                    stat.getPath()))) {
+                files.add(stat.getPath());
+            }
+        }
+
+        return files;
+    }
+
+
+    /**
+     * Create a file of the new input with large buffers.
+     */
+    private static BufferedWriter createOutput(FileSystem fs, Path file)
+            throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(fs.create(file,
+                true, PREPARE_BUFFER_SIZE)), PREPARE_BUFFER_SIZE);
+    }
+
+
+    /**
+     * Number the elements of A from 0, in the order of the files. The files
+     * are read twice, each time in parallel: first to count the elements of
+     * each file and then to write them with the number of the first one.
+     */
+    public static long prepareA(final Configuration conf,
+            final FileSystem fsInput, Path inputPath,
+            final Path newInputPath) throws Exception {
+
+        List<Path> files = filesOf(conf, fsInput, inputPath, "A");
+        List<Callable<Long>> tasks = new ArrayList<Callable<Long>>();
+        List<Long> counts;
+        long countA = 0;
+
+        for (final Path file : files) {
+            tasks.add(new Callable<Long>() {
+                public Long call() throws IOException {
+
+                    MatrixFormat.LineReader br = new MatrixFormat.LineReader(
+                            conf, fsInput, file, PREPARE_BUFFER_SIZE);
+                    long count = 0;
+                    String line;
+
+                    while ((line = br.readLine()) != null) {
+                        if (isLine(line) && line.charAt(0) != '#') {
+                            count++;
+                        }
                     }
 
-                    if (line.indexOf("A") > -1) {
-
-                        bw = new BufferedWriter(new OutputStreamWriter(
-                            fsInput.create(new Path(newPath), true)));
-
-                        while (line != null) {
-                            if (!(line.equals("")) && !(String.valueOf(
-                                    line.charAt(0)).equals(" "))) {
-
-                                val = line.split(",", 3);
-                                if (!val[0].equals("#A")) {
-
-                                    if (!newSize && !verified) {
-                                        tempVal = line.split(",");
-                                        verified = true;
-                                        if (tempVal.length == 5) {
-                                            newSize = true;
-                                        }
-                                    }
-
-                                    if (newSize) {
-                                        if (firstLine.equals("")) {
-                                            for (long j = 0; j < numberOfParts;
-                                                    j++) {
-                                                temp = "," + Long.toString(j)
-                                                        + "_" + val[1] + ",";
-                                                bw.write("\n" + val[0] + temp
-                                                        + val[2]);
-                                            }
-                                        } else {
-                                            temp = ",0_" + val[1] + ",";
-                                            bw.write(val[0] + temp + val[2]);
-                                            for (long j = 1; j < numberOfParts;
-                                                    j++) {
-                                                temp = "," + Long.toString(j)
-                                                        + "_" + val[1] + ",";
-                                                bw.write("\n" + val[0] + temp
-                                                        + val[2]);
-                                            }
-                                            firstLine = "";
-                                        }
-
-                                    } else {
-                                        System.out.println("Wrong input format."
-                                                );
-                                        System.exit(1);
-                                    }
-
-                                } else {
-                                    bw.write(line);
-                                    firstLine = "";
-                                }
-
-                            }
-                            if (newSize) {
-                                line = br.readLine();
-                            } else {
-                                line = null;
-                            }
+                    br.close();
+
+                    return count;
+                }
+            });
+        }
+
+        counts = runAll(conf, tasks);
+        tasks.clear();
+
+        for (int i = 0; i < files.size(); i++) {
+
+            final Path file = files.get(i);
+            final long first = countA;
+
+            countA += counts.get(i);
+
+            tasks.add(new Callable<Long>() {
+                public Long call() throws IOException {
+
+                    MatrixFormat.LineReader br = new MatrixFormat.LineReader(
+                            conf, fsInput, file, PREPARE_BUFFER_SIZE);
+                    BufferedWriter bw = createOutput(fsInput, new Path(
+                            newInputPath, file.getName()));
+                    StringBuilder output = new StringBuilder(256);
+                    long number = first;
+                    String line;
+                    String[] val;
 
+                    while ((line = br.readLine()) != null) {
+
+                        if (!isLine(line)) {
+                            continue;
                         }
 
-                        if (newSize) {
-                            bw.close();
-                            // Delete the old file not splitted.
-                            fsInput.delete(status[i].getPath(), true);
+                        val = line.split(",", 2);
 
-                        } else {
-                            bw.close();
-                            fsInput.delete(new Path(newPath), true);
-                            fu.copy(fsInput, status[i].getPath(), fsInput,
-                                newInputPath, false, true, conf);
+                        // The header and the elements already numbered are
+                        // copied.
+                        if (val[0].equals("#A")
+                                || line.split(",").length > 4) {
+                            bw.write(line);
+                            bw.write('\n');
+                            continue;
                         }
 
+                        output.setLength(0);
+                        output.append("A,").append(number).append(',')
+                                .append(val[1]).append('\n');
+                        bw.append(output);
+                        number++;
                     }
 
                     br.close();
+                    bw.close();
 
+                    return number - first;
                 }
+            });
+        }
+
+        runAll(conf, tasks);
+
+        return countA;
+    }
+
+
+    /**
+     * Write each element of B once for each element of A, with the number
+     * of the element of A. The files are written in parallel.
+     */
+    public static long prepareB(final Configuration conf,
+            final FileSystem fsInput, Path inputPath,
+            final Path newInputPath, final long countA) throws Exception {
 
+        List<Path> files = filesOf(conf, fsInput, inputPath, "B");
+        List<Callable<Long>> tasks = new ArrayList<Callable<Long>>();
+        long countB = 0;
+        String[] header;
+
+        for (final Path file : files) {
+
+            header = MatrixFormat.readHeader(conf, fsInput, file);
+            if (header != null && header[0].equals("#B")) {
+                conf.set("numberRowsB", header[1]);
+                conf.set("numberColumnsB", header[2]);
             }
 
+            tasks.add(new Callable<Long>() {
+                public Long call() throws IOException {
 
-        } catch (Exception e) {
-            System.out.println(e);
+                    MatrixFormat.LineReader br = new MatrixFormat.LineReader(
+                            conf, fsInput, file, PREPARE_BUFFER_SIZE);
+                    BufferedWriter bw = createOutput(fsInput, new Path(
+                            newInputPath, file.getName()));
+                    StringBuilder output = new StringBuilder(256);
+                    long count = 0;
+                    String line;
+                    String[] val;
+
+                    while ((line = br.readLine()) != null) {
+
+                        if (!isLine(line)) {
+                            continue;
+                        }
+
+                        val = line.split(",", 2);
+
+                        // The header and the elements already numbered are
+                        // copied.
+                        if (val[0].equals("#B")) {
+                            bw.write(line);
+                            bw.write('\n');
+                            continue;
+                        }
+
+                        count++;
+
+                        if (line.split(",").length > 4) {
+                            bw.write(line);
+                            bw.write('\n');
+                            continue;
+                        }
+
+                        for (long j = 0; j < countA; j++) {
+                            output.setLength(0);
+                            output.append("B,").append(j).append(',')
+                                    .append(val[1]).append('\n');
+                            bw.append(output);
+                        }
+                    }
+
+                    br.close();
+                    bw.close();
+
+                    return count;
+                }
+            });
         }
 
-        return numberOfParts;
+        for (Long count : runAll(conf, tasks)) {
+            countB += count;
+        }
+
+        return countB;
     }
 
 
@@ -661,17 +1028,24 @@ public class KronMatrix {
 
         long countA = 0;
         long countB = 0;
-        long numberOfParts = 1;
         Configuration conf = new Configuration();
         Path inputPath;
         Path outputPath;
         Path newInputPath;
         FileSystem fsInput;
         FileSystem  fs;
+        FileStatus[] status;
+        String[] header;
+        long[] dimensions = {1, 1};
+        boolean binary;
+        long startTime;
 
 
         try {
 
+            // Options like -D maxReduceTasks=N are set in the configuration.
+            args = new GenericOptionsParser(conf, args).getRemainingArgs();
+
             inputPath = new Path(args[0]);
             outputPath = new Path(args[1]);
             newInputPath = new Path(inputPath.toString() + "NewFormat");
@@ -681,17 +1055,51 @@ public class KronMatrix {
 
             fsInput = FileSystem.get(conf);
 
+            // A binary input gives a binary output.
+            binary = MatrixFormat.isBinary(conf, inputPath);
+
+            if (binary) {
+                status = fsInput.listStatus(inputPath);
+                for (int i = 0; i < status.length; i++) {
+                    if (!MatrixFormat.isDataFile(status[i].getPath())) {
+                        continue;
+                    }
+
+                    header = MatrixFormat.readHeader(conf, fsInput,
+                            status[i].getPath());
+                    if (header != null) {
+                        dimensions[0] *= Long.parseLong(header[1]);
+                        dimensions[1] *= Long.parseLong(header[2]);
+                    }
+                }
+            }
+
+            // Only the factors are written, MultMatrix uses the operator.
+            if (conf.getBoolean("lazyOperator", false)) {
+                KronOperator.write(conf, inputPath, outputPath);
+                fsInput.close();
+                return;
+            }
+
+            // A or B is small, so the products are made in the map tasks.
+            if (conf.getBoolean("kronBroadcast", false) && productBroadcast(
+                    conf, inputPath, outputPath, binary)) {
+                fsInput.close();
+                return;
+            }
+
             // Create a new input folder for the new format files
             fsInput.delete(newInputPath, true);
             fsInput.mkdirs(newInputPath);
 
+            startTime = System.nanoTime();
+
             countA = prepareA(conf, fsInput, inputPath, newInputPath);
 
             countB = prepareB(conf, fsInput, inputPath, newInputPath, countA);
 
-            numberOfParts = replicateA(conf, fsInput, inputPath, newInputPath,
-                                countB);
-
+            System.out.println("Time to prepare the input = " + ((
+                System.nanoTime() - startTime) / Math.pow(10, 9)) + " seconds");
 
             fsInput.close();
 
@@ -700,9 +1108,6 @@ public class KronMatrix {
             // Set the number of elements of the matrix B
             conf.set("numberElementsB", Long.toString(countB));
 
-            // Set the number of parts that the matrix A was splitted
-            conf.set("numberOfParts", Long.toString(numberOfParts));
-
 
             fs = FileSystem.get(new URI(outputPath.toString()), conf);
 
@@ -721,17 +1126,27 @@ public class KronMatrix {
             // Setup MapReduce job
             job.setMapperClass(Map.class);
             job.setReducerClass(Reduce.class);
+            job.setGroupingComparatorClass(KronGroupingComparator.class);
 
             // Set only the number of reduces tasks
-            //job.setNumReduceTasks(Integer.parseInt(args[3]));
+            if (ReducePlanner.isEnabled(conf)) {
+                job.setNumReduceTasks(ReducePlanner.numberReduceTasks(conf,
+                        (double) countA * countB));
+                job.setPartitionerClass(Partition.class);
+            }
 
             // Set Map output Key/Value type
-            job.setMapOutputKeyClass(Text.class);
+            job.setMapOutputKeyClass(KronKey.class);
             job.setMapOutputValueClass(Text.class);
 
             job.setInputFormatClass(TextInputFormat.class);
             job.setOutputFormatClass(TextOutputFormat.class);
 
+            if (binary) {
+                MatrixFormat.setBinaryOutput(job, args[2], Long.toString(
+                        dimensions[0]), Long.toString(dimensions[1]));
+            }
+
             // Input
             FileInputFormat.addInputPath(job, newInputPath);
 
@@ -739,7 +1154,13 @@ public class KronMatrix {
             FileOutputFormat.setOutputPath(job, outputPath);
 
             // Execute job
-            job.waitForCompletion(true);
+            startTime = System.nanoTime();
+            if (!job.waitForCompletion(true)) {
+                throw new IOException("The job KroneckerProduct failed.");
+            }
+
+            System.out.println("Time of the MapReduce job = " + ((
+                System.nanoTime() - startTime) / Math.pow(10, 9)) + " seconds");
 
             // Delete new input format folder
             fs.delete(newInputPath, true);
@@ -747,6 +1168,7 @@ public class KronMatrix {
 
         } catch (Exception e) {
             System.out.println(e);
+            System.exit(1);
         }
 
     }
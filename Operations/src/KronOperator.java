@@ -0,0 +1,503 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package operations;
+
+import java.io.IOException;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.filecache.DistributedCache;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+
+
+/**
+ * A Kronecker product F_0 (tensor) ... (tensor) F_n-1 that is never
+ * calculated. The folder of the operator has only the factors, each one in
+ * the folder _factorK, and the file _operator:
+ *
+ *      #K,M,N
+ *      K,0,_factor0,ROWS,COLUMNS
+ *      K,1,_factor1,ROWS,COLUMNS
+ *
+ * MultMatrix uses the operator as the matrix A. The index of a row of B is
+ * read as the digits (i_0, ..., i_n-1) of the columns of the factors, so
+ * (F_0 (tensor) ... (tensor) F_n-1) * B is made by one small product for
+ * each factor: F_k changes only the digit k. The names start with "_", so
+ * the folder of the operator can also have the files of B.
+ *
+ * @version 1.0 17 Oct 2026
+ * @author David Souza
+ */
+
+
+public final class KronOperator {
+
+    /**
+     * Name of the file that describes the operator.
+     */
+    public static final String OPERATOR = "_operator";
+
+    /**
+     * Prefix of the folders of the factors.
+     */
+    private static final String FACTOR = "_factor";
+
+
+    private KronOperator() {
+    }
+
+
+    /**
+     * Verify if a folder has a Kronecker operator.
+     */
+    public static boolean isOperator(Configuration conf, Path inputPath)
+            throws IOException {
+        return inputPath.getFileSystem(conf).exists(new Path(inputPath,
+                OPERATOR));
+    }
+
+
+    /**
+     * Return the values of the line #K,M,N of the operator.
+     */
+    public static String[] readHeader(Configuration conf, Path inputPath)
+            throws IOException {
+        return MatrixFormat.readHeader(conf, inputPath.getFileSystem(conf),
+                new Path(inputPath, OPERATOR));
+    }
+
+
+    /**
+     * Write the operator A (tensor) B with the matrices A and B of the
+     * input folder. The files are copied, nothing is multiplied.
+     */
+    public static void write(Configuration conf, Path inputPath,
+            Path outputPath) throws IOException {
+
+        FileSystem fs = inputPath.getFileSystem(conf);
+        FileStatus[] status = fs.listStatus(inputPath);
+        String[][] dimensions = new String[2][];
+        String[] header;
+        String type;
+        BufferedWriter bw;
+        int k;
+
+        if (isOperator(conf, inputPath)) {
+            throw new IOException("The factors of a Kronecker operator must "
+                    + "be matrices.");
+        }
+
+        // Delete the output directory if it already exists.
+        fs.delete(outputPath, true);
+        fs.mkdirs(new Path(outputPath, FACTOR + "0"));
+        fs.mkdirs(new Path(outputPath, FACTOR + "1"));
+
+        for (FileStatus stat : status) {
+            if (stat.isDir() || !MatrixFormat.isDataFile(stat.getPath())) {
+                continue;
+            }
+
+            type = MatrixFormat.fileType(conf, fs, stat.getPath());
+
+            // Empty file. Go to the next.
+            if (type == null) {
+                continue;
+            }
+
+            // A is the left factor.
+            k = type.equals("A") ? 0 : 1;
+
+            header = MatrixFormat.readHeader(conf, fs, stat.getPath());
+            if (header != null) {
+                dimensions[k] = header;
+            }
+
+            FileUtil.copy(fs, stat.getPath(), fs, new Path(outputPath,
+                    FACTOR + k + "/" + stat.getPath().getName()), false,
+                    conf);
+        }
+
+        if (dimensions[0] == null || dimensions[1] == null) {
+            throw new IOException("The input has no header.");
+        }
+
+        bw = new BufferedWriter(new OutputStreamWriter(fs.create(new Path(
+                outputPath, OPERATOR), true)));
+
+        bw.write("#K," + Long.toString(Long.parseLong(dimensions[0][1])
+                * Long.parseLong(dimensions[1][1])) + "," + Long.toString(
+                Long.parseLong(dimensions[0][2])
+                * Long.parseLong(dimensions[1][2])));
+
+        for (k = 0; k < 2; k++) {
+            bw.write("\nK," + k + "," + FACTOR + k + "," + dimensions[k][1]
+                    + "," + dimensions[k][2]);
+        }
+
+        bw.close();
+    }
+
+
+    /**
+     * Read the factors of an operator. Each value is {NAME, ROWS, COLUMNS}.
+     */
+    private static List<String[]> readFactors(Configuration conf,
+            Path inputPath) throws IOException {
+
+        MatrixFormat.LineReader br = new MatrixFormat.LineReader(conf,
+                inputPath.getFileSystem(conf), new Path(inputPath,
+                OPERATOR));
+        List<String[]> factors = new ArrayList<String[]>();
+        String line;
+        String[] records;
+
+        while ((line = br.readLine()) != null) {
+            records = line.split(",");
+
+            if (records.length == 5 && records[0].equals("K")) {
+                factors.add(new String[]{records[2], records[3],
+                        records[4]});
+            }
+        }
+
+        br.close();
+
+        return factors;
+    }
+
+
+    /**
+     * Calculate operator * B, where the operator and the files of B are in
+     * the input folder. The factors are applied from the last to the first,
+     * one job each, and only the last job writes the output folder.
+     */
+    public static void multiply(Configuration conf, Path inputPath,
+            Path outputPath, String[] dimB, boolean binary) throws Exception {
+
+        FileSystem fs = inputPath.getFileSystem(conf);
+        List<String[]> factors = readFactors(conf, inputPath);
+        int n = factors.size();
+        long[] dimensions = new long[n];
+        long lowSize;
+        long numberRows;
+        String type;
+        Path input = inputPath;
+        Path output;
+        Configuration jobConf;
+        FileStatus[] status;
+        Job job;
+
+        // The digits of B are the columns of the factors.
+        for (int k = 0; k < n; k++) {
+            dimensions[k] = Long.parseLong(factors.get(k)[2]);
+        }
+
+        for (int k = n - 1; k > -1; k--) {
+
+            lowSize = 1;
+            for (int m = k + 1; m < n; m++) {
+                lowSize *= dimensions[m];
+            }
+
+            // After this job the digit k is a row of F_k.
+            dimensions[k] = Long.parseLong(factors.get(k)[1]);
+            numberRows = 1;
+            for (int m = 0; m < n; m++) {
+                numberRows *= dimensions[m];
+            }
+
+            if (k == 0) {
+                output = outputPath;
+                type = conf.get("typeMatrixOutput");
+            } else {
+                output = new Path(outputPath.toString() + "TempFactor" + k);
+                type = "B";
+            }
+
+            fs.delete(output, true);
+
+            jobConf = new Configuration(conf);
+            jobConf.set("typeMatrixOutput", type);
+            jobConf.set("factorRows", factors.get(k)[1]);
+            jobConf.set("factorColumns", factors.get(k)[2]);
+            jobConf.setLong("lowSize", lowSize);
+            jobConf.setLong("numberRowsOutput", numberRows);
+            jobConf.set("numberColumnsOutput", dimB[1]);
+
+            // Create job
+            job = new Job(jobConf, "KroneckerOperatorFactor" + k);
+            job.setJarByClass(KronOperator.class);
+
+            // The factor is small, so it is sent to all map tasks.
+            status = fs.listStatus(new Path(inputPath, factors.get(k)[0]));
+            for (FileStatus stat : status) {
+                if (!stat.isDir() && MatrixFormat.isDataFile(
+                        stat.getPath())) {
+                    DistributedCache.addCacheFile(stat.getPath().toUri(),
+                            job.getConfiguration());
+                }
+            }
+
+            // Specify key / value
+            job.setOutputKeyClass(Text.class);
+            job.setOutputValueClass(Text.class);
+
+            // Setup MapReduce job
+            job.setCombinerClass(MultMatrix.CombineResult.class);
+            job.setReducerClass(MultMatrix.ReduceResult.class);
+
+            // Set Map output Key/Value type
+            job.setMapOutputKeyClass(LongWritable.class);
+            job.setMapOutputValueClass(ComplexWritable.class);
+
+            if (ReducePlanner.isEnabled(conf)) {
+                job.setNumReduceTasks(ReducePlanner.numberReduceTasks(conf,
+                        ReducePlanner.sample(conf, input).elements()));
+            }
+
+            if (binary) {
+                job.setMapperClass(BinaryMapFactor.class);
+                MatrixFormat.setBinaryInput(job);
+                MatrixFormat.setBinaryOutput(job, type, Long.toString(
+                        numberRows), dimB[1]);
+            } else {
+                job.setMapperClass(MapFactor.class);
+                job.setInputFormatClass(TextInputFormat.class);
+                job.setOutputFormatClass(TextOutputFormat.class);
+            }
+
+            // Input. The files of the operator start with "_" and are
+            // ignored.
+            FileInputFormat.addInputPath(job, input);
+
+            // Output
+            FileOutputFormat.setOutputPath(job, output);
+
+            // Execute job
+            if (!job.waitForCompletion(true)) {
+                throw new IOException("The job KroneckerOperatorFactor "
+                        + "failed.");
+            }
+
+            // Delete the result of the previous factor.
+            if (input != inputPath) {
+                fs.delete(input, true);
+            }
+
+            input = output;
+        }
+    }
+
+
+    /**
+     * A factor in memory, grouped by the column. The elements of the column
+     * c are in the positions offsets[c] to offsets[c + 1] - 1.
+     */
+    public static class Factor {
+
+        private int[] offsets;
+        private long[] rows;
+        private double[] real;
+        private double[] imaginary;
+        private long factorRows;
+        private long factorColumns;
+        private long lowSize;
+
+        public Factor(Configuration conf) throws IOException {
+
+            long[] rowsRead = new long[1024];
+            int[] columnsRead = new int[1024];
+            double[] re = new double[1024];
+            double[] im = new double[1024];
+            int[] cursor;
+            int size = 0;
+            String line;
+            String[] records;
+            ComplexWritable element = new ComplexWritable();
+            MatrixFormat.LineReader br;
+
+            factorRows = conf.getLong("factorRows", 1);
+            factorColumns = conf.getLong("factorColumns", 1);
+            lowSize = conf.getLong("lowSize", 1);
+
+            for (Path file : DistributedCache.getLocalCacheFiles(conf)) {
+                br = new MatrixFormat.LineReader(conf,
+                        FileSystem.getLocal(conf), file);
+
+                while ((line = br.readLine()) != null) {
+                    records = line.split(",");
+
+                    // # is the header of the factor.
+                    if (records.length != 4 || records[0].indexOf("#") > -1) {
+                        continue;
+                    }
+
+                    if (size == rowsRead.length) {
+                        rowsRead = Arrays.copyOf(rowsRead, 2 * size);
+                        columnsRead = Arrays.copyOf(columnsRead, 2 * size);
+                        re = Arrays.copyOf(re, 2 * size);
+                        im = Arrays.copyOf(im, 2 * size);
+                    }
+
+                    element.set(records[3]);
+                    rowsRead[size] = Long.parseLong(records[1]);
+                    columnsRead[size] = Integer.parseInt(records[2]);
+                    re[size] = element.getReal();
+                    im[size] = element.getImaginary();
+                    size++;
+                }
+
+                br.close();
+            }
+
+            // Counting sort by the column.
+            offsets = new int[(int) factorColumns + 1];
+            for (int i = 0; i < size; i++) {
+                offsets[columnsRead[i] + 1]++;
+            }
+            for (int c = 0; c < factorColumns; c++) {
+                offsets[c + 1] += offsets[c];
+            }
+
+            cursor = Arrays.copyOf(offsets, offsets.length);
+            rows = new long[size];
+            real = new double[size];
+            imaginary = new double[size];
+
+            for (int i = 0; i < size; i++) {
+                rows[cursor[columnsRead[i]]] = rowsRead[i];
+                real[cursor[columnsRead[i]]] = re[i];
+                imaginary[cursor[columnsRead[i]]] = im[i];
+                cursor[columnsRead[i]]++;
+            }
+        }
+
+        /**
+         * Multiply the element (row, column) of B by the column of the factor
+         * given by the digit of the row and add the products to the sums. A
+         * column of the factor can be longer than the table, so the sums are
+         * written when the table is full.
+         */
+        public void multiply(long row, long column, double re, double im,
+                ComplexAccumulator sums,
+                Mapper<?, ?, LongWritable, ComplexWritable>.Context context)
+                throws IOException, InterruptedException {
+
+            long high = row / (factorColumns * lowSize);
+            int digit = (int) (row / lowSize % factorColumns);
+            long low = row % lowSize;
+
+            for (int i = offsets[digit]; i < offsets[digit + 1]; i++) {
+
+                if (sums.isFull()) {
+                    MultMatrix.writeSums(context, sums);
+                }
+
+                sums.add(ComplexAccumulator.pack((high * factorRows + rows[i])
+                        * lowSize + low, column), ComplexMath.multiplyReal(
+                        real[i], imaginary[i], re, im),
+                        ComplexMath.multiplyImaginary(real[i], imaginary[i],
+                        re, im));
+            }
+        }
+    }
+
+
+    public static class MapFactor extends
+            Mapper<LongWritable, Text, LongWritable, ComplexWritable> {
+
+        private Factor factor;
+        private ComplexAccumulator sums;
+        private ComplexWritable element = new ComplexWritable();
+
+        protected void setup(Context context) throws IOException {
+
+            Configuration conf = context.getConfiguration();
+
+            factor = new Factor(conf);
+            sums = new ComplexAccumulator(conf.getInt("accumulatorSize",
+                    MultMatrix.DEFAULT_ACCUMULATOR_SIZE));
+        }
+
+        public void map(LongWritable key, Text value, Context context)
+                throws IOException, InterruptedException {
+
+            // "," is the delimiter used in the input file.
+            String[] records = value.toString().split(",");
+
+            // The headers are known by the driver.
+            if (records.length != 4 || !records[0].equals("B")) {
+                return;
+            }
+
+            element.set(records[3]);
+            factor.multiply(Long.parseLong(records[1]), Long.parseLong(
+                    records[2]), element.getReal(), element.getImaginary(),
+                    sums, context);
+        }
+
+        protected void cleanup(Context context) throws IOException,
+                InterruptedException {
+            MultMatrix.writeSums(context, sums);
+        }
+    }
+
+
+    public static class BinaryMapFactor extends
+            MatrixFormat.BinaryMapper<LongWritable, ComplexWritable> {
+
+        private Factor factor;
+        private ComplexAccumulator sums;
+
+        protected void setup(Context context) throws IOException,
+                InterruptedException {
+
+            Configuration conf = context.getConfiguration();
+
+            super.setup(context);
+            factor = new Factor(conf);
+            sums = new ComplexAccumulator(conf.getInt("accumulatorSize",
+                    MultMatrix.DEFAULT_ACCUMULATOR_SIZE));
+        }
+
+        public void map(LongPair key, ComplexWritable value, Context context)
+                throws IOException, InterruptedException {
+
+            factor.multiply(key.getRow(), key.getColumn(), value.getReal(),
+                    value.getImaginary(), sums, context);
+        }
+
+        protected void cleanup(Context context) throws IOException,
+                InterruptedException {
+            MultMatrix.writeSums(context, sums);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package operations;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+
+
+/**
+ * The (row, column) index of a matrix element. It is the key type of the
+ * binary matrix format.
+ *
+ * @version 1.0 17 Oct 2026
+ * @author David Souza
+ */
+
+
+public class LongPair implements WritableComparable<LongPair> {
+
+    /*
+     * Size in bytes of a serialized pair.
+     */
+    public static final int SIZE = 16;
+
+    private long row;
+    private long column;
+
+
+    public LongPair() {
+    }
+
+
+    public LongPair(long row, long column) {
+        set(row, column);
+    }
+
+
+    public void set(long row, long column) {
+        this.row = row;
+        this.column = column;
+    }
+
+
+    public long getRow() {
+        return row;
+    }
+
+
+    public long getColumn() {
+        return column;
+    }
+
+
+    public void write(DataOutput out) throws IOException {
+        out.writeLong(row);
+        out.writeLong(column);
+    }
+
+
+    public void readFields(DataInput in) throws IOException {
+        row = in.readLong();
+        column = in.readLong();
+    }
+
+
+    public int compareTo(LongPair other) {
+        if (row != other.row) {
+            return row < other.row ? -1 : 1;
+        }
+
+        if (column != other.column) {
+            return column < other.column ? -1 : 1;
+        }
+
+        return 0;
+    }
+
+
+    public boolean equals(Object other) {
+        if (!(other instanceof LongPair)) {
+            return false;
+        }
+
+        return row == ((LongPair) other).row
+                && column == ((LongPair) other).column;
+    }
+
+
+    public int hashCode() {
+        long hash = row * 31 + column;
+
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+
+    public String toString() {
+        return Long.toString(row) + "," + Long.toString(column);
+    }
+
+
+    /**
+     * Compare the serialized pairs without deserializing them.
+     */
+    public static class Comparator extends WritableComparator {
+
+        public Comparator() {
+            super(LongPair.class);
+        }
+
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2,
+                int l2) {
+
+            long first1 = readLong(b1, s1);
+            long first2 = readLong(b2, s2);
+
+            if (first1 != first2) {
+                return first1 < first2 ? -1 : 1;
+            }
+
+            first1 = readLong(b1, s1 + 8);
+            first2 = readLong(b2, s2 + 8);
+
+            if (first1 != first2) {
+                return first1 < first2 ? -1 : 1;
+            }
+
+            return 0;
+        }
+    }
+
+
+    static {
+        WritableComparator.define(LongPair.class, new Comparator());
+    }
+}
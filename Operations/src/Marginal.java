@@ -0,0 +1,346 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package operations;
+
+import java.io.IOException;
+import java.net.URI;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+
+
+/**
+ * This software calculate the marginal distribution of a state vector using
+ * Apache Hadoop. It gives the same result of AbsSquare, Reshape and SumAxis
+ * over all the axes in only one job: the square of the absolute value of
+ * each element is added to the sum of its indexes in the axes that are not
+ * summed.
+ *
+ * @version 1.0 17 Oct 2026
+ * @author David Souza
+ */
+
+
+public class Marginal {
+
+    /*
+     * Length of the array generated with the line split of a input file.
+     */
+    private static final int ARRAY_LENGTH = 4;
+
+    /*
+     * Number of arguments with the fixed values of the axes.
+     */
+    private static final int ARGS_LENGTH = 5;
+
+
+    /**
+     * The shape of the array read from the configuration. The flat index
+     * of an element is split in the indexes of the shape and the indexes of
+     * the axes that are not summed give the key of the element.
+     */
+    public static class Shape {
+
+        private long[] strides;
+        private long[] fixed;
+        private boolean[] kept;
+        private int[] header;
+
+        public Shape(Configuration conf) {
+
+            String[] shape = conf.get("input").split(",");
+            String[] axis = conf.get("axis").split(",");
+            String fixedAxis = conf.get("fixedAxis");
+            String[] values = fixedAxis.split(",");
+
+            strides = Reshape.strides(conf.get("input"));
+            fixed = new long[shape.length];
+            kept = new boolean[shape.length];
+
+            for (int i = 0; i < shape.length; i++) {
+
+                kept[i] = true;
+                fixed[i] = -1;
+
+                if (!fixedAxis.equals("empty") && !values[i].equals("?")) {
+                    fixed[i] = Long.parseLong(values[i]);
+                    kept[i] = false;
+                }
+            }
+
+            // The first axis is 1.
+            for (String a : axis) {
+                kept[Integer.parseInt(a) - 1] = false;
+            }
+
+            header = new int[shape.length];
+            for (int i = 0; i < shape.length; i++) {
+                header[i] = Integer.parseInt(shape[i]);
+            }
+        }
+
+        /**
+         * Set the key of the header with the dimensions of the axes that are
+         * not summed.
+         */
+        public void header(IndexArray key, char type) {
+
+            key.clear(type, true);
+
+            for (int i = 0; i < header.length; i++) {
+                if (kept[i]) {
+                    key.add(header[i]);
+                }
+            }
+        }
+
+        /**
+         * Set the key of the element in the position idx of the array.
+         * Return false if it is not in the fixed values.
+         */
+        public boolean key(IndexArray key, char type, long idx) {
+
+            long index;
+
+            key.clear(type, false);
+
+            for (int i = 0; i < strides.length; i++) {
+
+                index = idx / strides[i];
+                idx -= index * strides[i];
+
+                if (kept[i]) {
+                    key.add((int) index);
+                } else {
+                    if (fixed[i] > -1 && fixed[i] != index) {
+                        return false;
+                    }
+                }
+            }
+
+            return true;
+        }
+    }
+
+
+    public static class Map extends Mapper<LongWritable, Text, IndexArray,
+            DoubleWritable> {
+
+        private Shape shape;
+        private ComplexWritable element = new ComplexWritable();
+        private IndexArray outputKey = new IndexArray();
+        private DoubleWritable outputValue = new DoubleWritable();
+
+        protected void setup(Context context) throws IOException,
+                InterruptedException {
+            shape = new Shape(context.getConfiguration());
+        }
+
+        public void map(LongWritable key, Text value, Context context)
+                throws IOException, InterruptedException {
+
+            // "," is the delimiter used in the input file.
+            String[] records = value.toString().split(",");
+
+            // # is the header of the matrix file.
+            if (records[0].indexOf("#") > -1) {
+                shape.header(outputKey, records[0].charAt(1));
+                outputValue.set(0.0d);
+                context.write(outputKey, outputValue);
+                return;
+            }
+
+            if (records.length != ARRAY_LENGTH) {
+                return;
+            }
+
+            if (shape.key(outputKey, records[0].charAt(0), Long.parseLong(
+                    records[1]))) {
+                element.set(records[3]);
+                outputValue.set(ComplexMath.absSquare(element.getReal(),
+                        element.getImaginary()));
+                context.write(outputKey, outputValue);
+            }
+        }
+    }
+
+
+    public static class BinaryMap extends MatrixFormat.BinaryMapper<
+            IndexArray, DoubleWritable> {
+
+        private Shape shape;
+        private IndexArray outputKey = new IndexArray();
+        private DoubleWritable outputValue = new DoubleWritable();
+
+        protected void setup(Context context) throws IOException,
+                InterruptedException {
+
+            super.setup(context);
+            shape = new Shape(context.getConfiguration());
+
+            if (header) {
+                shape.header(outputKey, type.charAt(0));
+                context.write(outputKey, outputValue);
+            }
+        }
+
+        public void map(LongPair key, ComplexWritable value, Context context)
+                throws IOException, InterruptedException {
+
+            if (shape.key(outputKey, type.charAt(0), key.getRow())) {
+                outputValue.set(ComplexMath.absSquare(value.getReal(),
+                        value.getImaginary()));
+                context.write(outputKey, outputValue);
+            }
+        }
+    }
+
+
+    /**
+     * Run the operation with the given configuration. A driver calls it to
+     * submit the jobs in its own JVM; the file systems are not closed.
+     */
+    public static void run(Configuration conf, String[] args)
+            throws Exception {
+
+        Path inputPath;
+        Path outputPath;
+        FileSystem  fs;
+        Job job;
+        String[] header;
+        String fixedAxis = "empty";
+        long numberShape = 1;
+        int idxInputPath = 2;
+
+        if (args.length == ARGS_LENGTH) {
+            fixedAxis = args[2];
+            idxInputPath = 3;
+        } else {
+            if (args.length != ARGS_LENGTH - 1) {
+                throw new IllegalArgumentException("The program supports "
+                        + "only 4 or 5 arguments. The given input has "
+                        + args.length + " arguments.");
+            }
+        }
+
+        if (args[1].indexOf("0") > -1) {
+            throw new IllegalArgumentException("The first axis is 1.");
+        }
+
+        inputPath = new Path(args[idxInputPath]);
+        outputPath = new Path(args[idxInputPath + 1]);
+
+        for (String dim : args[0].split(",")) {
+            numberShape *= Long.parseLong(dim);
+        }
+
+        if (!fixedAxis.equals("empty") && fixedAxis.split(",").length
+                != args[0].split(",").length) {
+            throw new IllegalArgumentException("You should give "
+                    + args[0].split(",").length + " values to be fixed. Use "
+                    + "the character ? in a not fixed value.");
+        }
+
+        header = MatrixFormat.findHeader(conf, inputPath);
+
+        if (numberShape != Long.parseLong(header[1])) {
+            throw new IllegalArgumentException("The shape given in the "
+                    + "input does not fit with the dimension in the input "
+                    + "file.");
+        }
+
+        /*
+         * Disable the map output compression in Hadoop for gain of
+         * performance
+         */
+        conf.set("mapred.compress.map.output", "false");
+
+        // Set the key/value separator
+        conf.set("mapred.textoutputformat.separator", ",");
+
+        // The shape of the array, the summed axes and the fixed values
+        conf.set("input", args[0]);
+        conf.set("axis", args[1]);
+        conf.set("fixedAxis", fixedAxis);
+
+        fs = FileSystem.get(new URI(outputPath.toString()), conf);
+
+        // Delete the output directory if it already exists.
+        fs.delete(outputPath, true);
+
+        // Create job
+        job = new Job(conf, "Marginal");
+        job.setJarByClass(Marginal.class);
+
+        // Specify key / value
+        job.setOutputKeyClass(IndexArray.class);
+        job.setOutputValueClass(Writable.class);
+
+        // The sums are the same of SumAxis.
+        job.setCombinerClass(SumAxis.Combine.class);
+        job.setReducerClass(SumAxis.Reduce.class);
+
+        // Set only the number of reduces tasks
+        job.setNumReduceTasks(1);
+
+        // Set Map output Key/Value type
+        job.setMapOutputKeyClass(IndexArray.class);
+        job.setMapOutputValueClass(DoubleWritable.class);
+
+        if (MatrixFormat.isBinary(conf, inputPath)) {
+            job.setMapperClass(BinaryMap.class);
+            MatrixFormat.setBinaryInput(job);
+        } else {
+            job.setMapperClass(Map.class);
+            job.setInputFormatClass(TextInputFormat.class);
+        }
+        job.setOutputFormatClass(TextOutputFormat.class);
+
+        // Input
+        FileInputFormat.addInputPath(job, inputPath);
+
+        // Output
+        FileOutputFormat.setOutputPath(job, outputPath);
+
+        // Execute job
+        if (!job.waitForCompletion(true)) {
+            throw new IOException("The job Marginal failed.");
+        }
+    }
+
+
+    public static void main(String[] args) throws Exception {
+
+        try {
+            run(new Configuration(), args);
+        } catch (Exception e) {
+            System.out.println(e);
+            System.exit(1);
+        }
+
+    }
+}
@@ -0,0 +1,448 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package operations;
+
+import java.io.IOException;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+
+
+/**
+ * The binary matrix format. Each file is a SequenceFile of (LongPair,
+ * ComplexWritable) records, one per element of the matrix. The type of the
+ * matrix (A or B) and its dimensions are stored in the metadata of every
+ * file. Only one file of a matrix has the flag "header", it replaces the
+ * line #TYPE,M,N of the text format.
+ *
+ * @version 1.0 17 Oct 2026
+ * @author David Souza
+ */
+
+
+public final class MatrixFormat {
+
+    /*
+     * Metadata keys of a binary matrix file.
+     */
+    private static final Text TYPE = new Text("type");
+    private static final Text ROWS = new Text("rows");
+    private static final Text COLUMNS = new Text("columns");
+    private static final Text HEADER = new Text("header");
+
+    /*
+     * Positions in the array returned by readMetadata.
+     */
+    public static final int META_TYPE = 0;
+    public static final int META_ROWS = 1;
+    public static final int META_COLUMNS = 2;
+    public static final int META_HEADER = 3;
+
+    /**
+     * File with the header of a text output written without reduce tasks.
+     * Its name comes before the names of the part-m files.
+     */
+    public static final String HEADER_FILE = "part-00000-header";
+
+
+    private MatrixFormat() {
+    }
+
+
+    /**
+     * Files created by Hadoop, like _logs and _SUCCESS, are not data files.
+     */
+    public static boolean isDataFile(Path path) {
+
+        String name = path.getName();
+
+        return !(name.startsWith("_") || name.startsWith("."));
+    }
+
+
+    /**
+     * Verify if a file is a SequenceFile.
+     */
+    public static boolean isBinaryFile(FileSystem fs, Path file)
+            throws IOException {
+
+        FSDataInputStream in = fs.open(file);
+        byte[] magic = new byte[3];
+
+        try {
+            in.readFully(magic);
+        } catch (IOException e) {
+            // Shorter than the magic number.
+            return false;
+        } finally {
+            in.close();
+        }
+
+        return magic[0] == 'S' && magic[1] == 'E' && magic[2] == 'Q';
+    }
+
+
+    /**
+     * Verify if the matrices in a directory are in the binary format. The
+     * first non-empty data file decides.
+     */
+    public static boolean isBinary(Configuration conf, Path inputPath)
+            throws IOException {
+
+        FileSystem fs = inputPath.getFileSystem(conf);
+        FileStatus[] status = fs.listStatus(inputPath);
+
+        if (status == null) {
+            return false;
+        }
+
+        for (FileStatus stat : status) {
+            if (stat.isDir() || !isDataFile(stat.getPath())
+                    || stat.getLen() == 0) {
+                continue;
+            }
+
+            return isBinaryFile(fs, stat.getPath());
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Read the header of a file in any format. Return the values of the line
+     * #TYPE,M,N split by the character comma or null if the file has no
+     * header.
+     */
+    public static String[] readHeader(Configuration conf, FileSystem fs,
+            Path file) throws IOException {
+
+        LineReader lr = new LineReader(conf, fs, file);
+        String line = lr.readLine();
+
+        lr.close();
+
+        if (line == null || line.indexOf("#") == -1) {
+            return null;
+        }
+
+        return line.split(",");
+    }
+
+
+    /**
+     * Write the line #TYPE,M,N of a text output in the file HEADER_FILE of
+     * the output directory.
+     */
+    public static void writeHeader(Configuration conf, Path outputPath,
+            String header) throws IOException {
+
+        FileSystem fs = outputPath.getFileSystem(conf);
+        BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(
+                fs.create(new Path(outputPath, HEADER_FILE), true)));
+
+        bw.write(header);
+        bw.newLine();
+        bw.close();
+    }
+
+
+    /**
+     * Return the first header found in the files of a directory.
+     */
+    public static String[] findHeader(Configuration conf, Path inputPath)
+            throws IOException {
+
+        FileSystem fs = inputPath.getFileSystem(conf);
+        FileStatus[] status = fs.listStatus(inputPath);
+        String[] header;
+
+        for (FileStatus stat : status) {
+            if (isDataFile(stat.getPath())) {
+                header = readHeader(conf, fs, stat.getPath());
+                if (header != null) {
+                    return header;
+                }
+            }
+        }
+
+        throw new IOException("The input has no header.");
+    }
+
+
+    /**
+     * Return the type of the matrix in a file: A, B or null if the file is
+     * empty.
+     */
+    public static String fileType(Configuration conf, FileSystem fs,
+            Path file) throws IOException {
+
+        LineReader br = new LineReader(conf, fs, file);
+        String line = br.readLine();
+
+        br.close();
+
+        if (line == null || line.equals("")) {
+            return null;
+        }
+
+        return line.indexOf("A") > -1 ? "A" : "B";
+    }
+
+
+    /**
+     * Read the metadata of a binary file. Return the type, the number of
+     * rows, the number of columns and the header flag.
+     */
+    public static String[] readMetadata(Configuration conf, FileSystem fs,
+            Path file) throws IOException {
+
+        SequenceFile.Reader reader = new SequenceFile.Reader(fs, file, conf);
+        SequenceFile.Metadata metadata = reader.getMetadata();
+
+        reader.close();
+
+        return new String[]{toString(metadata.get(TYPE)),
+                toString(metadata.get(ROWS)), toString(metadata.get(COLUMNS)),
+                toString(metadata.get(HEADER))};
+    }
+
+
+    private static String toString(Text value) {
+        return value == null ? null : value.toString();
+    }
+
+
+    public static SequenceFile.Metadata createMetadata(String type,
+            String rows, String columns, boolean header) {
+
+        SequenceFile.Metadata metadata = new SequenceFile.Metadata();
+
+        metadata.set(TYPE, new Text(type));
+        metadata.set(ROWS, new Text(rows));
+        metadata.set(COLUMNS, new Text(columns));
+        metadata.set(HEADER, new Text(Boolean.toString(header)));
+
+        return metadata;
+    }
+
+
+    /**
+     * Use SequenceFileInputFormat in a job that reads binary matrices.
+     */
+    public static void setBinaryInput(Job job) {
+        job.setInputFormatClass(SequenceFileInputFormat.class);
+    }
+
+
+    /**
+     * Write the output of a job in the binary format. The metadata of the
+     * output files is stored in the job configuration.
+     */
+    public static void setBinaryOutput(Job job, String type, String rows,
+            String columns) {
+
+        Configuration conf = job.getConfiguration();
+
+        conf.setBoolean("binaryOutput", true);
+        conf.set("typeMatrixOutput", type);
+        conf.set("numberRowsOutput", rows);
+        conf.set("numberColumnsOutput", columns);
+
+        job.setOutputKeyClass(LongPair.class);
+        job.setOutputValueClass(ComplexWritable.class);
+        job.setOutputFormatClass(BinaryOutputFormat.class);
+    }
+
+
+    /**
+     * Read the lines of a matrix file in the text format. A binary file is
+     * converted line by line to the text format.
+     */
+    public static class LineReader {
+
+        private BufferedReader br;
+        private SequenceFile.Reader reader;
+        private String type;
+        private String header;
+        private LongPair index = new LongPair();
+        private ComplexWritable value = new ComplexWritable();
+
+
+        public LineReader(Configuration conf, FileSystem fs, Path file)
+                throws IOException {
+            this(conf, fs, file, 8192);
+        }
+
+
+        /**
+         * Read a file with a buffer of bufferSize bytes.
+         */
+        public LineReader(Configuration conf, FileSystem fs, Path file,
+                int bufferSize) throws IOException {
+
+            String[] metadata;
+
+            if (isBinaryFile(fs, file)) {
+                metadata = readMetadata(conf, fs, file);
+                reader = new SequenceFile.Reader(fs, file, conf);
+                type = metadata[META_TYPE];
+
+                if (Boolean.parseBoolean(metadata[META_HEADER])) {
+                    header = "#" + type + "," + metadata[META_ROWS] + ","
+                            + metadata[META_COLUMNS];
+                }
+
+            } else {
+                br = new BufferedReader(new InputStreamReader(fs.open(file,
+                        bufferSize)), bufferSize);
+            }
+        }
+
+
+        public String readLine() throws IOException {
+
+            String line;
+
+            if (br != null) {
+                return br.readLine();
+            }
+
+            if (header != null) {
+                line = header;
+                header = null;
+                return line;
+            }
+
+            if (!reader.next(index, value)) {
+                return null;
+            }
+
+            return type + "," + index.toString() + "," + value.toString();
+        }
+
+
+        public void close() throws IOException {
+
+            if (br != null) {
+                br.close();
+            } else {
+                reader.close();
+            }
+        }
+    }
+
+
+    /**
+     * Mapper of a binary file. The metadata of the file is available in the
+     * fields type, rows and columns. The field header is true only in the map
+     * task that must write the header of the matrix.
+     */
+    public abstract static class BinaryMapper<KEYOUT, VALUEOUT> extends
+            Mapper<LongPair, ComplexWritable, KEYOUT, VALUEOUT> {
+
+        protected String type;
+        protected String rows;
+        protected String columns;
+        protected boolean header;
+
+        protected void setup(Context context) throws IOException,
+                InterruptedException {
+
+            Configuration conf = context.getConfiguration();
+            FileSplit split = (FileSplit) context.getInputSplit();
+            Path file = split.getPath();
+            String[] metadata = readMetadata(conf, file.getFileSystem(conf),
+                    file);
+
+            type = metadata[META_TYPE];
+            rows = metadata[META_ROWS];
+            columns = metadata[META_COLUMNS];
+            header = Boolean.parseBoolean(metadata[META_HEADER])
+                    && split.getStart() == 0;
+        }
+    }
+
+
+    /**
+     * Write SequenceFiles with the metadata of the output matrix. The first
+     * task writes the header flag.
+     */
+    public static class BinaryOutputFormat extends
+            FileOutputFormat<LongPair, ComplexWritable> {
+
+        public RecordWriter<LongPair, ComplexWritable> getRecordWriter(
+                TaskAttemptContext context) throws IOException,
+                InterruptedException {
+
+            Configuration conf = context.getConfiguration();
+            Path file = getDefaultWorkFile(context, "");
+            FileSystem fs = file.getFileSystem(conf);
+            CompressionCodec codec = null;
+            CompressionType compressionType = CompressionType.NONE;
+            boolean header = context.getTaskAttemptID().getTaskID().getId()
+                    == 0;
+
+            if (getCompressOutput(context)) {
+                compressionType = SequenceFileOutputFormat
+                        .getOutputCompressionType(context);
+                codec = (CompressionCodec) ReflectionUtils.newInstance(
+                        getOutputCompressorClass(context, DefaultCodec.class),
+                        conf);
+            }
+
+            final SequenceFile.Writer out = SequenceFile.createWriter(fs, conf,
+                    file, LongPair.class, ComplexWritable.class,
+                    compressionType, codec, context, createMetadata(
+                    conf.get("typeMatrixOutput"), conf.get("numberRowsOutput"),
+                    conf.get("numberColumnsOutput"), header));
+
+            return new RecordWriter<LongPair, ComplexWritable>() {
+
+                public void write(LongPair key, ComplexWritable value)
+                        throws IOException {
+                    out.append(key, value);
+                }
+
+                public void close(TaskAttemptContext context)
+                        throws IOException {
+                    out.close();
+                }
+            };
+        }
+    }
+}
@@ -15,26 +15,39 @@
 
 package operations;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.net.URI;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
 
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.filecache.DistributedCache;
 import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Partitioner;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
 
 
 /**
@@ -48,8 +61,52 @@ import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
 
 public class MultMatrix {
 
+    /**
+     * Default number of rows and columns of a block in the matrix-vector
+     * mode. The reduce task keeps two blocks of complex numbers in memory.
+     */
+    private static final long DEFAULT_BLOCK_SIZE = 1048576;
+
+    /**
+     * File of the input folder with the pairs (row block, column block)
+     * that have elements of A in the matrix-vector mode.
+     */
+    private static final String BLOCKS = "_blocks";
+
+    /**
+     * Default number of output coordinates summed in memory in the fused
+     * mode.
+     */
+    private static final int DEFAULT_FUSED_MAP_SIZE = 500000;
+
+    /**
+     * Default number of output coordinates summed in memory by a map task
+     * of the second job.
+     */
+    static final int DEFAULT_ACCUMULATOR_SIZE = 262144;
+
+    /**
+     * Default size in bytes of the files of a matrix that is sent to all
+     * map tasks in the broadcast mode.
+     */
+    private static final long DEFAULT_BROADCAST_SIZE = 33554432;
+
+    /**
+     * Default maximum number of elements of A or B with the same key in the
+     * first job. Bigger inner indices are split in the skew mode.
+     */
+    private static final long DEFAULT_MAX_GROUP_SIZE = 1000000;
+
+
     public static class MapPrepare extends
             Mapper<LongWritable, Text, Text, Text> {
+
+        private SkewedKeys skewedKeys;
+
+        protected void setup(Context context) {
+            skewedKeys = new SkewedKeys(context.getConfiguration());
+        }
+
         public void map(LongWritable key, Text value, Context context)
                 throws IOException, InterruptedException {
 
@@ -61,18 +118,19 @@ public class MultMatrix {
 
             if (records[0].equals("A")) {    // A is the left matrix.
 
-                outputKey.set(records[2]);
                 outputValue.set("A," + records[1] + "," + records[2]
                             + "," + records[3]);
-                context.write(outputKey, outputValue);
+                skewedKeys.write(context, true, Long.parseLong(records[2]),
+                        Long.parseLong(records[1]), outputValue);
 
             } else {
                 if (records[0].equals("B")) {    // B is the right matrix.
 
-                    outputKey.set(records[1]);
                     outputValue.set("B," + records[1] + "," + records[2]
                             + "," + records[3]);
-                    context.write(outputKey, outputValue);
+                    skewedKeys.write(context, false, Long.parseLong(
+                            records[1]), Long.parseLong(records[2]),
+                            outputValue);
                 } else {
                     // # is the line with the matrices dimensions.
                     if (records[0].indexOf("#") > -1) {
@@ -88,30 +146,207 @@ public class MultMatrix {
     }
 
 
-    public static class ReducePrepare extends
-            Reducer<Text, Text, Text, Text> {
-        public void reduce(Text key, Iterable<Text> values, Context context)
+    public static class BinaryMapPrepare extends
+            MatrixFormat.BinaryMapper<Text, Text> {
+
+        private SkewedKeys skewedKeys;
+
+        protected void setup(Context context) throws IOException,
+                InterruptedException {
+
+            super.setup(context);
+            skewedKeys = new SkewedKeys(context.getConfiguration());
+
+            // The metadata of the file replaces the line with the dimensions.
+            if (header) {
+                context.write(new Text("#"), new Text("#" + type + "," + rows
+                        + "," + columns));
+            }
+        }
+
+        public void map(LongPair key, ComplexWritable value, Context context)
                 throws IOException, InterruptedException {
 
+            if (type.equals("A")) {    // A is the left matrix.
+
+                skewedKeys.write(context, true, key.getColumn(),
+                        key.getRow(), new Text("A," + key.toString() + ","
+                        + value.toString()));
+
+            } else {    // B is the right matrix.
+
+                skewedKeys.write(context, false, key.getRow(),
+                        key.getColumn(), new Text("B," + key.toString() + ","
+                        + value.toString()));
+            }
+        }
+    }
+
+
+    /**
+     * Inner indices with more than maxGroupSize elements of A or B. The
+     * elements of A of a skewed index k are split in partsA groups by row
+     * and the elements of B in partsB groups by column. The pair of groups
+     * (i, j) has the key k_(i * partsB + j): an element of A is sent partsB
+     * times, an element of B partsA times, and the products of k are made
+     * by several reduce tasks that keep at most about 2 * maxGroupSize
+     * elements. The second job adds the partial sums of all parts.
+     *
+     * In the fused mode with several reduce tasks the keys also have the
+     * range of rows of A as a prefix R:, read from fusedRowBounds. An
+     * element of A goes to the range of its row and an element of B to all
+     * ranges, so each reduce task has all products of its rows.
+     */
+    public static class SkewedKeys {
+
+        private HashMap<Long, int[]> parts = new HashMap<Long, int[]>();
+        private long[] rowBounds;
+
+        /**
+         * Read the skewed keys of the configuration, written as
+         * INDEX:PARTS_A:PARTS_B.
+         */
+        public SkewedKeys(Configuration conf) {
+
+            String[] values = conf.getStrings("skewedKeys");
+            String[] bounds = conf.getStrings("fusedRowBounds");
             String[] value;
-            String[] valA;
-            String[] valB;
-            String rows = "";
-            String columns = "";
-            List<String[]> listA = new ArrayList<String[]>();
-            List<String[]> listB = new ArrayList<String[]>();
-            Text output = new Text();
+
+            if (bounds != null) {
+                rowBounds = new long[bounds.length];
+                for (int i = 0; i < bounds.length; i++) {
+                    rowBounds[i] = Long.parseLong(bounds[i]);
+                }
+            }
+
+            if (values == null) {
+                return;
+            }
+
+            for (String val : values) {
+                value = val.split(":");
+                parts.put(Long.parseLong(value[0]), new int[]{
+                        Integer.parseInt(value[1]),
+                        Integer.parseInt(value[2])});
+            }
+        }
+
+        /**
+         * Write an element with the inner index inner. The index other is
+         * the row of an element of A or the column of an element of B.
+         */
+        public void write(Mapper<?, ?, Text, Text>.Context context,
+                boolean typeA, long inner, long other, Text value)
+                throws IOException, InterruptedException {
+
+            int index;
+
+            if (rowBounds == null) {
+                write(context, "", typeA, inner, other, value);
+                return;
+            }
+
+            if (typeA) {
+                index = Arrays.binarySearch(rowBounds, other);
+                index = index < 0 ? -index - 1 : index + 1;
+                write(context, Integer.toString(index) + ":", typeA, inner,
+                        other, value);
+            } else {
+                for (int i = 0; i <= rowBounds.length; i++) {
+                    write(context, Integer.toString(i) + ":", typeA, inner,
+                            other, value);
+                }
+            }
+        }
+
+        private void write(Mapper<?, ?, Text, Text>.Context context,
+                String range, boolean typeA, long inner, long other,
+                Text value) throws IOException, InterruptedException {
+
+            int[] part = parts.isEmpty() ? null : parts.get(inner);
+            String prefix;
+
+            if (part == null) {
+                context.write(new Text(range + Long.toString(inner)), value);
+                return;
+            }
+
+            prefix = range + Long.toString(inner) + "_";
+
+            if (typeA) {
+                for (int j = 0; j < part[1]; j++) {
+                    context.write(new Text(prefix + Long.toString(other
+                            % part[0] * part[1] + j)), value);
+                }
+            } else {
+                for (int i = 0; i < part[0]; i++) {
+                    context.write(new Text(prefix + Long.toString(i * part[1]
+                            + other % part[1])), value);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * The elements of A and B with the same inner index. The values are
+     * kept in arrays of doubles for the complex kernels.
+     */
+    private static class InnerGroup {
+
+        private int sizeA;
+        private int sizeB;
+        private long[] rowsA = new long[16];
+        private double[] realA = new double[16];
+        private double[] imaginaryA = new double[16];
+        private long[] columnsB = new long[16];
+        private double[] realB = new double[16];
+        private double[] imaginaryB = new double[16];
+        private double[] productReal = new double[16];
+        private double[] productImaginary = new double[16];
+        private ComplexWritable element = new ComplexWritable();
+        private String rows;
+        private String columns;
+
+        void read(Iterable<Text> values) {
+
+            String[] value;
+
+            sizeA = 0;
+            sizeB = 0;
+            rows = "";
+            columns = "";
 
             for (Text val : values) {
                 value = val.toString().split(",");
                 if (value[0].equals("A")) {
-                    listA.add(new String[]{value[1], value[2], value[3]});
+                    if (sizeA == rowsA.length) {
+                        rowsA = Arrays.copyOf(rowsA, 2 * sizeA);
+                        realA = Arrays.copyOf(realA, 2 * sizeA);
+                        imaginaryA = Arrays.copyOf(imaginaryA, 2 * sizeA);
+                    }
+                    element.set(value[3]);
+                    rowsA[sizeA] = Long.parseLong(value[1]);
+                    realA[sizeA] = element.getReal();
+                    imaginaryA[sizeA] = element.getImaginary();
+                    sizeA++;
 
                 } else {
                     if (value[0].equals("B")) {
-                        listB.add(new String[]{value[1], value[2], value[3]});
+                        if (sizeB == columnsB.length) {
+                            columnsB = Arrays.copyOf(columnsB, 2 * sizeB);
+                            realB = Arrays.copyOf(realB, 2 * sizeB);
+                            imaginaryB = Arrays.copyOf(imaginaryB, 2 * sizeB);
+                            productReal = new double[2 * sizeB];
+                            productImaginary = new double[2 * sizeB];
+                        }
+                        element.set(value[3]);
+                        columnsB[sizeB] = Long.parseLong(value[2]);
+                        realB[sizeB] = element.getReal();
+                        imaginaryB[sizeB] = element.getImaginary();
+                        sizeB++;
 
-                    } else { // Write the matrix dimension in the file.
+                    } else { // The matrix dimension.
 
                         if (value[0].equals("#A")) {
                             rows = value[1];
@@ -123,23 +358,47 @@ public class MultMatrix {
                     }
                 }
             }
+        }
 
-            if ((!rows.equals("")) && (!columns.equals(""))) {
-                context.write(null, new Text(key.toString() + ";" + rows
-                        + "," + columns));
+        /**
+         * Multiply the element i of A by all elements of B. The products
+         * are stored in productReal and productImaginary.
+         */
+        void multiply(int i) {
+            ComplexMath.scale(realA[i], imaginaryA[i], realB, imaginaryB,
+                    productReal, productImaginary, sizeB);
+        }
+    }
+
+
+    public static class ReducePrepare extends
+            Reducer<Text, Text, Text, Text> {
+
+        private InnerGroup group = new InnerGroup();
+
+        public void reduce(Text key, Iterable<Text> values, Context context)
+                throws IOException, InterruptedException {
+
+            Text output = new Text();
+
+            group.read(values);
+
+            // Write the matrix dimension in the file.
+            if ((!group.rows.equals("")) && (!group.columns.equals(""))) {
+                context.write(null, new Text(key.toString() + ";"
+                        + group.rows + "," + group.columns));
             }
 
-            for (String[] elementA : listA) {
-                for (String[] elementB : listB) {
+            for (int i = 0; i < group.sizeA; i++) {
+
+                group.multiply(i);
 
-                    valA = elementA[2].split("j");
-                    valB = elementB[2].split("j");
+                for (int j = 0; j < group.sizeB; j++) {
 
-                    output.set(elementA[0] + "," + elementB[1] + ";"
-                            + Double.toString(Double.parseDouble(valA[0])
-                            * Double.parseDouble(valB[0])) + "j"
-                            + Double.toString(Double.parseDouble(valA[1])
-                            * Double.parseDouble(valB[1])));
+                    output.set(Long.toString(group.rowsA[i]) + ","
+                            + Long.toString(group.columnsB[j]) + ";"
+                            + Double.toString(group.productReal[j]) + "j"
+                            + Double.toString(group.productImaginary[j]));
 
                     context.write(null, output);
                 }
@@ -149,263 +408,1894 @@ public class MultMatrix {
     }
 
 
-    public static class MapResult extends
-            Mapper<LongWritable, Text, Text, Text> {
+    /**
+     * Counters of the fused mode.
+     */
+    public static enum FusedCounter {
+        // Number of times the partial sums were written to free memory.
+        SPILLS,
+        // Number of reduce tasks that wrote their rows of the final matrix.
+        FINAL_OUTPUT
+    }
 
-        public void map(LongWritable key, Text value, Context context)
-                throws IOException, InterruptedException {
 
-            String[] vals = value.toString().split(";");
+    /**
+     * Fused mode of the first job. The products are summed in memory by
+     * the output coordinate instead of being written one by one. When the
+     * map of sums reaches fusedMapSize entries it is written as partial sums
+     * to be added by the second job. A reduce task that has all products of
+     * its rows, because it is the only one or because the keys are split by
+     * the rows of A, and that never wrote partial sums writes its rows of
+     * the final matrix. The header is written by the first task. When all
+     * tasks did so the second job is not needed.
+     */
+    public static class ReduceFused extends Reducer<Text, Text, Text, Text> {
 
-            context.write(new Text(vals[0]), new Text(vals[1]));
+        private InnerGroup group = new InnerGroup();
+        private ComplexAccumulator sums;
+        private boolean spilled = false;
 
-        }
-    }
+        protected void setup(Context context) {
+
+            Configuration conf = context.getConfiguration();
 
+            sums = new ComplexAccumulator(conf.getInt("fusedMapSize",
+                    DEFAULT_FUSED_MAP_SIZE));
 
-    public static class CombineResult extends Reducer<Text, Text, Text, Text> {
+            // Only a text output can be written directly by this job.
+            spilled = !conf.getBoolean("fusedFinal", true)
+                    || (context.getNumReduceTasks() != 1
+                    && conf.getStrings("fusedRowBounds") == null);
+        }
 
         public void reduce(Text key, Iterable<Text> values, Context context)
                 throws IOException, InterruptedException {
 
-            String[] value;
-            double real = 0.0d;
-            double imaginary = 0.0d;
+            group.read(values);
 
-            if (!key.toString().equals("#")) {
+            for (int i = 0; i < group.sizeA; i++) {
 
-                for (Text val : values) {
-                    value = val.toString().split("j");
-                    real += Double.parseDouble(value[0]);
-                    imaginary += Double.parseDouble(value[1]);
-                }
+                group.multiply(i);
 
-                if ((real != 0.0d) || (imaginary != 0.0d)) {
+                for (int j = 0; j < group.sizeB; j++) {
 
-                    context.write(key, new Text(Double.toString(real) + "j"
-                            + Double.toString(imaginary)));
+                    if (sums.isFull()) {
+                        spill(context);
+                    }
 
+                    sums.add(ComplexAccumulator.pack(group.rowsA[i],
+                            group.columnsB[j]), group.productReal[j],
+                            group.productImaginary[j]);
                 }
+            }
+        }
 
-            } else {
-                for (Text val : values) {
-                    context.write(key, val);
+        /**
+         * Write the sums in memory as partial sums of the second job.
+         */
+        private void spill(Context context) throws IOException,
+                InterruptedException {
+
+            spilled = true;
+            context.getCounter(FusedCounter.SPILLS).increment(1);
+
+            for (int i = sums.next(0); i > -1; i = sums.next(i + 1)) {
+                context.write(null, new Text(Long.toString(
+                        ComplexAccumulator.row(sums.key(i))) + ","
+                        + Long.toString(ComplexAccumulator.column(sums.key(i)))
+                        + ";" + Double.toString(sums.real(i)) + "j"
+                        + Double.toString(sums.imaginary(i))));
+            }
+
+            sums.clear();
+        }
+
+        protected void cleanup(Context context) throws IOException,
+                InterruptedException {
+
+            Configuration conf = context.getConfiguration();
+            String typeMatrixOutput = conf.get("typeMatrixOutput");
+
+            if (spilled) {
+                spill(context);
+                return;
+            }
+
+            context.getCounter(FusedCounter.FINAL_OUTPUT).increment(1);
+
+            // Write the matrix dimension in the file.
+            if (context.getTaskAttemptID().getTaskID().getId() == 0) {
+                context.write(null, new Text("#" + typeMatrixOutput + ","
+                        + conf.get("numberRowsOutput") + ","
+                        + conf.get("numberColumnsOutput")));
+            }
+
+            for (int i = sums.next(0); i > -1; i = sums.next(i + 1)) {
+
+                if (sums.real(i) != 0.0d || sums.imaginary(i) != 0.0d) {
+                    context.write(null, new Text(typeMatrixOutput + ","
+                            + Long.toString(ComplexAccumulator.row(sums.key(i)))
+                            + "," + Long.toString(ComplexAccumulator.column(
+                            sums.key(i))) + "," + Double.toString(sums.real(i))
+                            + "j" + Double.toString(sums.imaginary(i))));
                 }
             }
+        }
+    }
+
+
+    /**
+     * Send the keys R:INNER of the fused mode to the reduce task R. A key
+     * without a range, like the header, goes to the first task.
+     */
+    public static class RowRangePartitioner extends
+            Partitioner<Text, Text> {
 
+        public int getPartition(Text key, Text value, int numPartitions) {
+
+            byte[] bytes = key.getBytes();
+            int length = key.getLength();
+            int range = 0;
+
+            for (int i = 0; i < length && bytes[i] != ':'; i++) {
+                if (bytes[i] < '0' || bytes[i] > '9') {
+                    return 0;
+                }
+                range = range * 10 + (bytes[i] - '0');
+            }
 
+            return range % numPartitions;
         }
     }
 
 
-    public static class ReduceResult extends Reducer<Text, Text, Text, Text> {
+    /**
+     * Sum the partial products of the split in memory and write one value
+     * per output coordinate. The coordinate is packed in a long key.
+     */
+    public static class MapResult extends
+            Mapper<LongWritable, Text, LongWritable, ComplexWritable> {
 
-        public void reduce(Text key, Iterable<Text> values, Context context)
+        private ComplexAccumulator sums;
+        private ComplexWritable element = new ComplexWritable();
+
+        protected void setup(Context context) {
+            sums = new ComplexAccumulator(context.getConfiguration().getInt(
+                    "accumulatorSize", DEFAULT_ACCUMULATOR_SIZE));
+        }
+
+        public void map(LongWritable key, Text value, Context context)
                 throws IOException, InterruptedException {
 
-            String[] value;
-            double real = 0.0d;
-            double imaginary = 0.0d;
-            Configuration conf = context.getConfiguration();
-            String typeMatrixOutput = conf.get("typeMatrixOutput");
+            String line = value.toString();
+            int comma = line.indexOf(',');
+            int semicolon = line.indexOf(';');
+            String[] vals;
+            long outputKey;
+
+            // The dimensions of the output are known by the driver.
+            if (line.charAt(0) == '#') {
+                return;
+            }
 
-            if (!key.toString().equals("#")) {
+            // A line of the final matrix of a task of the fused mode.
+            if (semicolon < 0) {
+                vals = line.split(",");
+                element.set(vals[3]);
+                outputKey = ComplexAccumulator.pack(Long.parseLong(vals[1]),
+                        Long.parseLong(vals[2]));
+            } else {
+                element.set(line.substring(semicolon + 1));
+                outputKey = ComplexAccumulator.pack(
+                        Long.parseLong(line.substring(0, comma)),
+                        Long.parseLong(line.substring(comma + 1, semicolon)));
+            }
 
-                for (Text val : values) {
-                    value = val.toString().split("j");
-                    real += Double.parseDouble(value[0]);
-                    imaginary += Double.parseDouble(value[1]);
-                }
+            sums.add(outputKey, element.getReal(), element.getImaginary());
 
-                if (real != 0.0d || imaginary != 0.0d) {
+            if (sums.isFull()) {
+                writeSums(context, sums);
+            }
+        }
 
-                    context.write(null, new Text(typeMatrixOutput + ","
-                            + key.toString() + "," + Double.toString(real)
-                            + "j" + Double.toString(imaginary)));
-                }
+        protected void cleanup(Context context) throws IOException,
+                InterruptedException {
+            writeSums(context, sums);
+        }
+    }
 
-            } else {
-                for (Text val : values) {
-                    value = val.toString().split(",");
-                    // Write the matrix dimension in the file.
-                    context.write(null, new Text("#" + typeMatrixOutput + ","
-                            + value[0] + "," + value[1]));
-                }
+
+    static void writeSums(
+            Mapper<?, ?, LongWritable, ComplexWritable>.Context context,
+            ComplexAccumulator sums) throws IOException,
+            InterruptedException {
+
+        LongWritable outputKey = new LongWritable();
+        ComplexWritable outputValue = new ComplexWritable();
+
+        for (int i = sums.next(0); i > -1; i = sums.next(i + 1)) {
+            outputKey.set(sums.key(i));
+            outputValue.set(sums.real(i), sums.imaginary(i));
+            context.write(outputKey, outputValue);
+        }
+
+        sums.clear();
+    }
+
+
+    public static class CombineResult extends Reducer<LongWritable,
+            ComplexWritable, LongWritable, ComplexWritable> {
+
+        private ComplexWritable output = new ComplexWritable();
+
+        public void reduce(LongWritable key, Iterable<ComplexWritable> values,
+                Context context) throws IOException, InterruptedException {
+
+            double real = 0.0d;
+            double imaginary = 0.0d;
+
+            for (ComplexWritable val : values) {
+                real += val.getReal();
+                imaginary += val.getImaginary();
             }
 
+            output.set(real, imaginary);
+            context.write(key, output);
         }
     }
 
 
-    public static void main(String[] args) throws Exception {
+    public static class ReduceResult extends
+            Reducer<LongWritable, ComplexWritable, Writable, Writable> {
 
-        String[] dimA = new String[2];
-        String[] dimB = new String[2];
-        BufferedReader br;
-        String tempPath = args[0] + "TempSecondPass";
-        String line;
-        String[] vals;
+        private String typeMatrixOutput;
+        private boolean binaryOutput;
 
-        Configuration conf = new Configuration();
-        Path inputPath;
-        Path outputPath;
-        FileSystem fsInput;
-        FileStatus[] status;
-        FileSystem fs;
-        Job job;
-        Path inputPath2;
-        Path outputPath2;
-        FileSystem fs2;
-        Job job2;
+        protected void setup(Context context) throws IOException,
+                InterruptedException {
 
+            Configuration conf = context.getConfiguration();
 
-        try {
+            typeMatrixOutput = conf.get("typeMatrixOutput");
+            binaryOutput = conf.getBoolean("binaryOutput", false);
 
-            // Set if the output will be matrix type A ou type B
-            conf.set("typeMatrixOutput", args[2]);
+            // Write the matrix dimension in the file.
+            if (!binaryOutput && context.getTaskAttemptID().getTaskID()
+                    .getId() == 0) {
+                context.write(null, new Text("#" + typeMatrixOutput + ","
+                        + conf.get("numberRowsOutput") + ","
+                        + conf.get("numberColumnsOutput")));
+            }
+        }
 
-            // The input/output paths of the first Map/Reduce job
-            inputPath = new Path(args[0]);
-            outputPath = new Path(tempPath);
+        public void reduce(LongWritable key, Iterable<ComplexWritable> values,
+                Context context) throws IOException, InterruptedException {
 
-            // The input/output paths of the second Map/Reduce job
-            inputPath2 = new Path(tempPath);
-            outputPath2 = new Path(args[1]);
+            double real = 0.0d;
+            double imaginary = 0.0d;
+            long row = ComplexAccumulator.row(key.get());
+            long column = ComplexAccumulator.column(key.get());
 
-            fsInput = FileSystem.get(conf);
-            // The names of all files in the input path
-            status = fsInput.listStatus(inputPath);
+            for (ComplexWritable val : values) {
+                real += val.getReal();
+                imaginary += val.getImaginary();
+            }
 
-            for (int i = 0; i < status.length; i++) {
-                br = new BufferedReader(new InputStreamReader(fsInput.open(
-                        status[i].getPath())));
-                line = br.readLine();
+            if (real != 0.0d || imaginary != 0.0d) {
 
-                // Empty file. Go to the next.
-                if (line == null) {
-                    br.close();
-                    continue;
+                if (binaryOutput) {
+                    context.write(new LongPair(row, column),
+                            new ComplexWritable(real, imaginary));
+                } else {
+                    context.write(null, new Text(typeMatrixOutput + ","
+                            + Long.toString(row) + "," + Long.toString(column)
+                            + "," + Double.toString(real) + "j"
+                            + Double.toString(imaginary)));
                 }
+            }
+        }
+    }
 
-                if (dimA[0] != null && dimA[1] != null && dimB[0] != null
-                        && dimB[1] != null) {
-                    br.close();
-                    break;
-                }
 
-                if (line.indexOf("#") > -1) {
-                    if (line.indexOf("#A") > -1) {
-                        vals = line.split(",");
-                        dimA[0] = vals[1];
-                        dimA[1] = vals[2];
+    /**
+     * A small matrix kept in memory in the broadcast mode. The elements are
+     * grouped by the inner index of the product: the row of B or the column
+     * of A. The elements of the inner index keys[k] are in the positions
+     * offsets[k] to offsets[k + 1] - 1 of the other arrays.
+     */
+    public static class BroadcastMatrix {
+
+        private long[] keys;
+        private int[] offsets;
+        private long[] others;
+        private double[] real;
+        private double[] imaginary;
+
+        /**
+         * Read the elements of the matrix of the given type in the files.
+         */
+        public void load(Configuration conf, FileSystem fs, Path[] files,
+                String type) throws IOException {
+
+            long[] inner = new long[1024];
+            long[] outer = new long[1024];
+            double[] re = new double[1024];
+            double[] im = new double[1024];
+            int[] cursor;
+            int size = 0;
+            int count;
+            int pos;
+            String line;
+            String[] records;
+            ComplexWritable element = new ComplexWritable();
+            MatrixFormat.LineReader br;
+
+            for (Path file : files) {
+                br = new MatrixFormat.LineReader(conf, fs, file);
+
+                while ((line = br.readLine()) != null) {
+                    records = line.split(",");
+
+                    if (records.length != 4 || !records[0].equals(type)) {
+                        continue;
+                    }
 
-                    } else {
-                        if (line.indexOf("#B") > -1) {
-                            vals = line.split(",");
-                            dimB[0] = vals[1];
-                            dimB[1] = vals[2];
-                        }
+                    if (size == inner.length) {
+                        inner = Arrays.copyOf(inner, 2 * size);
+                        outer = Arrays.copyOf(outer, 2 * size);
+                        re = Arrays.copyOf(re, 2 * size);
+                        im = Arrays.copyOf(im, 2 * size);
+                    }
 
+                    element.set(records[3]);
+                    // A is grouped by the column and B by the row.
+                    if (type.equals("A")) {
+                        inner[size] = Long.parseLong(records[2]);
+                        outer[size] = Long.parseLong(records[1]);
+                    } else {
+                        inner[size] = Long.parseLong(records[1]);
+                        outer[size] = Long.parseLong(records[2]);
                     }
+                    re[size] = element.getReal();
+                    im[size] = element.getImaginary();
+                    size++;
                 }
+
                 br.close();
             }
 
-            fsInput.close();
+            // The distinct inner indexes in ascending order.
+            keys = Arrays.copyOf(inner, size);
+            Arrays.sort(keys);
+            count = 0;
+            for (int i = 0; i < size; i++) {
+                if (i == 0 || keys[i] != keys[count - 1]) {
+                    keys[count++] = keys[i];
+                }
+            }
+            keys = Arrays.copyOf(keys, count);
+
+            offsets = new int[count + 1];
+            for (int i = 0; i < size; i++) {
+                offsets[Arrays.binarySearch(keys, inner[i]) + 1]++;
+            }
+            for (int i = 0; i < count; i++) {
+                offsets[i + 1] += offsets[i];
+            }
+
+            others = new long[size];
+            real = new double[size];
+            imaginary = new double[size];
+            cursor = Arrays.copyOf(offsets, count);
+            for (int i = 0; i < size; i++) {
+                pos = cursor[Arrays.binarySearch(keys, inner[i])]++;
+                others[pos] = outer[i];
+                real[pos] = re[i];
+                imaginary[pos] = im[i];
+            }
+        }
 
-            /*
-             * A_(m x n) and B_(p x q) -> verify if n==p,
-             * constraint for matrix multiplication
-             */
-            if (!dimA[1].equals(dimB[0])) {
+        /**
+         * Add to the sums the products of an element of the big matrix with
+         * the elements of the same inner index in this matrix. A row of this
+         * matrix can be longer than the table, so the sums are written when
+         * the table is full.
+         */
+        public void multiply(boolean broadcastB, long row, long column,
+                double re, double im, ComplexAccumulator sums,
+                Mapper<?, ?, LongWritable, ComplexWritable>.Context context)
+                throws IOException, InterruptedException {
 
-                System.out.print("\n---------------------------------------"
-                        + "-------------------------\n");
-                System.out.println("You can not perform the multiplication "
-                        + "between the matrices in the input path. The "
-                        + "constraint below should be satisfied:\nThe "
-                        + "number of columns in the matrix A must be "
-                        + "equal to the number of rows in the matrix B.");
-                System.out.println("---------------------------------------"
-                        + "-------------------------\n");
-                System.exit(1);
+            int k = Arrays.binarySearch(keys, broadcastB ? column : row);
 
+            if (k < 0) {
+                return;
             }
 
+            for (int i = offsets[k]; i < offsets[k + 1]; i++) {
+
+                if (sums.isFull()) {
+                    writeSums(context, sums);
+                }
+
+                if (broadcastB) {
+                    sums.add(ComplexAccumulator.pack(row, others[i]),
+                            ComplexMath.multiplyReal(re, im, real[i],
+                            imaginary[i]), ComplexMath.multiplyImaginary(re,
+                            im, real[i], imaginary[i]));
+                } else {
+                    sums.add(ComplexAccumulator.pack(others[i], column),
+                            ComplexMath.multiplyReal(real[i], imaginary[i],
+                            re, im), ComplexMath.multiplyImaginary(real[i],
+                            imaginary[i], re, im));
+                }
+            }
+        }
+    }
 
-            fs = FileSystem.get(new URI(outputPath.toString()), conf);
 
-            // Delete the output directory if it already exists.
-            fs.delete(outputPath, true);
-            fs.close();
+    /**
+     * Load the matrix in the distributed cache, broadcastType, before the
+     * elements of the other matrix are read.
+     */
+    private static BroadcastMatrix loadBroadcast(Configuration conf)
+            throws IOException {
 
-            // Create job
-            job = new Job(conf, "MatrixMultiplicationStep1");
-            job.setJarByClass(MultMatrix.class);
+        BroadcastMatrix matrix = new BroadcastMatrix();
 
-            // Specify key / value
-            job.setOutputKeyClass(Text.class);
-            job.setOutputValueClass(Text.class);
+        matrix.load(conf, FileSystem.getLocal(conf),
+                DistributedCache.getLocalCacheFiles(conf),
+                conf.get("broadcastType"));
 
-            // Setup MapReduce job
-            job.setMapperClass(MapPrepare.class);
-            job.setReducerClass(ReducePrepare.class);
+        return matrix;
+    }
 
-            // Set only the number of reduces tasks
-            //job.setNumReduceTasks(Integer.parseInt(args[4]));
 
-            job.setInputFormatClass(TextInputFormat.class);
-            job.setOutputFormatClass(TextOutputFormat.class);
+    /**
+     * Broadcast mode. The small matrix is in memory, so each element of the
+     * big matrix is multiplied in the map and only the sums of the split
+     * are sent to the reduce.
+     */
+    public static class MapBroadcast extends
+            Mapper<LongWritable, Text, LongWritable, ComplexWritable> {
 
-            // Input
-            FileInputFormat.addInputPath(job, inputPath);
+        private BroadcastMatrix matrix;
+        private boolean broadcastB;
+        private ComplexAccumulator sums;
+        private ComplexWritable element = new ComplexWritable();
 
-            // Output
-            FileOutputFormat.setOutputPath(job, outputPath);
+        protected void setup(Context context) throws IOException {
+
+            Configuration conf = context.getConfiguration();
+
+            matrix = loadBroadcast(conf);
+            broadcastB = conf.get("broadcastType").equals("B");
+            sums = new ComplexAccumulator(conf.getInt("accumulatorSize",
+                    DEFAULT_ACCUMULATOR_SIZE));
+        }
+
+        public void map(LongWritable key, Text value, Context context)
+                throws IOException, InterruptedException {
+
+            // "," is the delimiter used in the input file.
+            String[] records = value.toString().split(",");
+
+            // The headers are known by the driver.
+            if (records.length != 4 || records[0].indexOf("#") > -1) {
+                return;
+            }
+
+            element.set(records[3]);
+            matrix.multiply(broadcastB, Long.parseLong(records[1]),
+                    Long.parseLong(records[2]), element.getReal(),
+                    element.getImaginary(), sums, context);
+        }
+
+        protected void cleanup(Context context) throws IOException,
+                InterruptedException {
+            writeSums(context, sums);
+        }
+    }
 
-            // Execute job
-            job.waitForCompletion(true);
 
-            // Start of the second Map/Reduce job
-            fs2 = FileSystem.get(new URI(outputPath2.toString()), conf);
+    public static class BinaryMapBroadcast extends
+            MatrixFormat.BinaryMapper<LongWritable, ComplexWritable> {
 
-            // Delete the output directory if it already exists.
-            fs2.delete(outputPath2, true);
+        private BroadcastMatrix matrix;
+        private boolean broadcastB;
+        private ComplexAccumulator sums;
 
-            // Create job
-            job2 = new Job(conf, "MatrixMultiplicationStep2");
-            job2.setJarByClass(MultMatrix.class);
+        protected void setup(Context context) throws IOException,
+                InterruptedException {
 
-            // Specify key / value
-            job2.setOutputKeyClass(Text.class);
-            job2.setOutputValueClass(Text.class);
+            Configuration conf = context.getConfiguration();
+
+            super.setup(context);
+            matrix = loadBroadcast(conf);
+            broadcastB = conf.get("broadcastType").equals("B");
+            sums = new ComplexAccumulator(conf.getInt("accumulatorSize",
+                    DEFAULT_ACCUMULATOR_SIZE));
+        }
+
+        public void map(LongPair key, ComplexWritable value, Context context)
+                throws IOException, InterruptedException {
+
+            matrix.multiply(broadcastB, key.getRow(), key.getColumn(),
+                    value.getReal(), value.getImaginary(), sums, context);
+        }
+
+        protected void cleanup(Context context) throws IOException,
+                InterruptedException {
+            writeSums(context, sums);
+        }
+    }
 
-            // Setup MapReduce job
-            job2.setMapperClass(MapResult.class);
-            job2.setCombinerClass(CombineResult.class);
-            job2.setReducerClass(ReduceResult.class);
 
-            // Set only the number of reduces tasks
-            //job2.setNumReduceTasks(Integer.parseInt(args[4]));
+    /**
+     * Key of the matrix-vector mode. The elements of A are grouped by the
+     * row block and the column block. The elements of the vector B have the
+     * tag VECTOR, so they arrive before the elements of A in a group.
+     */
+    public static class BlockKey implements WritableComparable<BlockKey> {
 
-            job2.setInputFormatClass(TextInputFormat.class);
-            job2.setOutputFormatClass(TextOutputFormat.class);
+        public static final byte VECTOR = 0;
+        public static final byte MATRIX = 1;
 
-            // Input
-            FileInputFormat.addInputPath(job2, inputPath2);
+        private long rowBlock;
+        private long columnBlock;
+        private byte tag;
+
+        public void set(long rowBlock, long columnBlock, byte tag) {
+            this.rowBlock = rowBlock;
+            this.columnBlock = columnBlock;
+            this.tag = tag;
+        }
 
-            // Output
-            FileOutputFormat.setOutputPath(job2, outputPath2);
+        public long getRowBlock() {
+            return rowBlock;
+        }
 
-            // Execute job
-            job2.waitForCompletion(true);
+        public long getColumnBlock() {
+            return columnBlock;
+        }
 
-            // Delete the temporary directory after job execution.
-            fs2.delete(inputPath2, true);
-            fs2.close();
+        public byte getTag() {
+            return tag;
+        }
 
+        public void write(DataOutput out) throws IOException {
+            out.writeLong(rowBlock);
+            out.writeLong(columnBlock);
+            out.writeByte(tag);
+        }
+
+        public void readFields(DataInput in) throws IOException {
+            rowBlock = in.readLong();
+            columnBlock = in.readLong();
+            tag = in.readByte();
+        }
+
+        public int compareTo(BlockKey other) {
+            if (rowBlock != other.rowBlock) {
+                return rowBlock < other.rowBlock ? -1 : 1;
+            }
+
+            if (columnBlock != other.columnBlock) {
+                return columnBlock < other.columnBlock ? -1 : 1;
+            }
+
+            return tag - other.tag;
+        }
+
+        public boolean equals(Object other) {
+            return other instanceof BlockKey
+                    && compareTo((BlockKey) other) == 0;
+        }
+
+        public int hashCode() {
+            return (int) (rowBlock * 31 + columnBlock) * 31 + tag;
+        }
+
+        /**
+         * The blocks are not negative, so the serialized keys can be
+         * compared byte by byte.
+         */
+        public static class Comparator extends WritableComparator {
+
+            public Comparator() {
+                super(BlockKey.class);
+            }
+
+            public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2,
+                    int l2) {
+                return compareBytes(b1, s1, l1, b2, s2, l2);
+            }
+        }
+
+        static {
+            WritableComparator.define(BlockKey.class, new Comparator());
+        }
+    }
+
+
+    /**
+     * Group the keys only by the row block and the column block.
+     */
+    public static class BlockGroupingComparator extends WritableComparator {
+
+        public BlockGroupingComparator() {
+            super(BlockKey.class);
+        }
+
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2,
+                int l2) {
+            // The tag is the last byte of the key.
+            return compareBytes(b1, s1, l1 - 1, b2, s2, l2 - 1);
+        }
+    }
+
+
+    /**
+     * All column blocks of a row block go to the same reduce task.
+     */
+    public static class BlockPartitioner extends
+            Partitioner<BlockKey, Entry> {
+
+        public int getPartition(BlockKey key, Entry value, int numPartitions) {
+            return (int) (key.getRowBlock() % numPartitions);
+        }
+    }
+
+
+    /**
+     * An element of a matrix with its row and column.
+     */
+    public static class Entry implements Writable {
+
+        private long row;
+        private long column;
+        private double real;
+        private double imaginary;
+
+        public void set(long row, long column, double real,
+                double imaginary) {
+            this.row = row;
+            this.column = column;
+            this.real = real;
+            this.imaginary = imaginary;
+        }
+
+        public long getRow() {
+            return row;
+        }
+
+        public long getColumn() {
+            return column;
+        }
+
+        public double getReal() {
+            return real;
+        }
+
+        public double getImaginary() {
+            return imaginary;
+        }
+
+        public void write(DataOutput out) throws IOException {
+            out.writeLong(row);
+            out.writeLong(column);
+            out.writeDouble(real);
+            out.writeDouble(imaginary);
+        }
+
+        public void readFields(DataInput in) throws IOException {
+            row = in.readLong();
+            column = in.readLong();
+            real = in.readDouble();
+            imaginary = in.readDouble();
+        }
+    }
+
+
+    public static class MapVector extends
+            Mapper<LongWritable, Text, BlockKey, Entry> {
+
+        private BlockKey outputKey = new BlockKey();
+        private Entry outputValue = new Entry();
+        private ComplexWritable element = new ComplexWritable();
+        private long rowBlockSize;
+        private long columnBlockSize;
+        private long numberRowBlocks;
+        private long[] pairs;
+
+        protected void setup(Context context) throws IOException {
+
+            Configuration conf = context.getConfiguration();
+
+            rowBlockSize = conf.getLong("rowBlockSize", 0);
+            columnBlockSize = conf.getLong("columnBlockSize", 0);
+            numberRowBlocks = conf.getLong("numberRowBlocks", 1);
+            pairs = loadBlockPairs(conf);
+        }
+
+        public void map(LongWritable key, Text value, Context context)
+                throws IOException, InterruptedException {
+
+            // "," is the delimiter used in the input file.
+            String[] records = value.toString().split(",");
+
+            // The headers are known by the driver.
+            if (records.length != 4 || records[0].indexOf("#") > -1) {
+                return;
+            }
+
+            element.set(records[3]);
+            writeBlocks(context, records[0], Long.parseLong(records[1]),
+                    Long.parseLong(records[2]), element, outputKey,
+                    outputValue, rowBlockSize, columnBlockSize,
+                    numberRowBlocks, pairs);
+        }
+    }
+
+
+    public static class BinaryMapVector extends
+            MatrixFormat.BinaryMapper<BlockKey, Entry> {
+
+        private BlockKey outputKey = new BlockKey();
+        private Entry outputValue = new Entry();
+        private long rowBlockSize;
+        private long columnBlockSize;
+        private long numberRowBlocks;
+        private long[] pairs;
+
+        protected void setup(Context context) throws IOException,
+                InterruptedException {
+
+            Configuration conf = context.getConfiguration();
+
+            super.setup(context);
+            rowBlockSize = conf.getLong("rowBlockSize", 0);
+            columnBlockSize = conf.getLong("columnBlockSize", 0);
+            numberRowBlocks = conf.getLong("numberRowBlocks", 1);
+            pairs = loadBlockPairs(conf);
+        }
+
+        public void map(LongPair key, ComplexWritable value, Context context)
+                throws IOException, InterruptedException {
+
+            writeBlocks(context, type, key.getRow(), key.getColumn(), value,
+                    outputKey, outputValue, rowBlockSize, columnBlockSize,
+                    numberRowBlocks, pairs);
+        }
+    }
+
+
+    /**
+     * Send an element of A to its block and an element of the vector B to
+     * the row blocks of A that have elements in its column block. Without
+     * the pairs of A the element is sent to all row blocks.
+     */
+    private static void writeBlocks(
+            Mapper<?, ?, BlockKey, Entry>.Context context, String type,
+            long row, long column, ComplexWritable value, BlockKey outputKey,
+            Entry outputValue, long rowBlockSize, long columnBlockSize,
+            long numberRowBlocks, long[] pairs) throws IOException,
+            InterruptedException {
+
+        long columnBlock;
+        int first;
+
+        outputValue.set(row, column, value.getReal(), value.getImaginary());
+
+        if (type.equals("A")) {    // A is the left matrix.
+
+            outputKey.set(row / rowBlockSize, column / columnBlockSize,
+                    BlockKey.MATRIX);
+            context.write(outputKey, outputValue);
+
+        } else {    // B is the right vector.
+
+            columnBlock = row / columnBlockSize;
+
+            if (pairs == null) {
+                for (long i = 0; i < numberRowBlocks; i++) {
+                    outputKey.set(i, columnBlock, BlockKey.VECTOR);
+                    context.write(outputKey, outputValue);
+                }
+                return;
+            }
+
+            // The pairs are sorted by the column block.
+            first = Arrays.binarySearch(pairs, ComplexAccumulator.pack(
+                    columnBlock, 0));
+            if (first < 0) {
+                first = -first - 1;
+            }
+
+            for (int i = first; i < pairs.length && ComplexAccumulator.row(
+                    pairs[i]) == columnBlock; i++) {
+                outputKey.set(ComplexAccumulator.column(pairs[i]),
+                        columnBlock, BlockKey.VECTOR);
+                context.write(outputKey, outputValue);
+            }
+        }
+    }
+
+
+    /**
+     * Read the file BLOCKS of the distributed cache. Return the pairs
+     * packed as (column block, row block) in ascending order, or null if
+     * the file is not in the cache.
+     */
+    private static long[] loadBlockPairs(Configuration conf)
+            throws IOException {
+
+        Path[] files = DistributedCache.getLocalCacheFiles(conf);
+        FileSystem fs = FileSystem.getLocal(conf);
+        long[] pairs = new long[1024];
+        int size = 0;
+        long pair;
+        String line;
+        BufferedReader br;
+
+        if (files == null) {
+            return null;
+        }
+
+        for (Path file : files) {
+            if (!file.getName().equals(BLOCKS)) {
+                continue;
+            }
+
+            br = new BufferedReader(new InputStreamReader(fs.open(file)));
+
+            // The first line identifies the files of A.
+            br.readLine();
+
+            while ((line = br.readLine()) != null) {
+
+                if (size == pairs.length) {
+                    pairs = Arrays.copyOf(pairs, 2 * size);
+                }
+
+                pair = Long.parseLong(line.trim());
+                pairs[size++] = ComplexAccumulator.pack(
+                        ComplexAccumulator.column(pair),
+                        ComplexAccumulator.row(pair));
+            }
+
+            br.close();
+
+            pairs = Arrays.copyOf(pairs, size);
+            Arrays.sort(pairs);
+
+            return pairs;
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Write the pairs (row block, column block) of the elements of A, each
+     * pair once per map task. The pairs are packed in a long.
+     */
+    public static class MapBlockPairs extends
+            Mapper<LongWritable, Text, LongWritable, NullWritable> {
+
+        private ComplexAccumulator pairs;
+        private long rowBlockSize;
+        private long columnBlockSize;
+
+        protected void setup(Context context) {
+
+            Configuration conf = context.getConfiguration();
+
+            rowBlockSize = conf.getLong("rowBlockSize", 0);
+            columnBlockSize = conf.getLong("columnBlockSize", 0);
+            pairs = new ComplexAccumulator(conf.getInt("accumulatorSize",
+                    DEFAULT_ACCUMULATOR_SIZE));
+        }
+
+        public void map(LongWritable key, Text value, Context context)
+                throws IOException, InterruptedException {
+
+            // "," is the delimiter used in the input file.
+            String[] records = value.toString().split(",");
+
+            if (records.length != 4 || !records[0].equals("A")) {
+                return;
+            }
+
+            addBlockPair(context, pairs, Long.parseLong(records[1])
+                    / rowBlockSize, Long.parseLong(records[2])
+                    / columnBlockSize);
+        }
+
+        protected void cleanup(Context context) throws IOException,
+                InterruptedException {
+            writeBlockPairs(context, pairs);
+        }
+    }
+
+
+    public static class BinaryMapBlockPairs extends
+            MatrixFormat.BinaryMapper<LongWritable, NullWritable> {
+
+        private ComplexAccumulator pairs;
+        private long rowBlockSize;
+        private long columnBlockSize;
+
+        protected void setup(Context context) throws IOException,
+                InterruptedException {
+
+            Configuration conf = context.getConfiguration();
+
+            super.setup(context);
+            rowBlockSize = conf.getLong("rowBlockSize", 0);
+            columnBlockSize = conf.getLong("columnBlockSize", 0);
+            pairs = new ComplexAccumulator(conf.getInt("accumulatorSize",
+                    DEFAULT_ACCUMULATOR_SIZE));
+        }
+
+        public void map(LongPair key, ComplexWritable value, Context context)
+                throws IOException, InterruptedException {
+
+            if (type.equals("A")) {
+                addBlockPair(context, pairs, key.getRow() / rowBlockSize,
+                        key.getColumn() / columnBlockSize);
+            }
+        }
+
+        protected void cleanup(Context context) throws IOException,
+                InterruptedException {
+            writeBlockPairs(context, pairs);
+        }
+    }
+
+
+    private static void addBlockPair(
+            Mapper<?, ?, LongWritable, NullWritable>.Context context,
+            ComplexAccumulator pairs, long rowBlock, long columnBlock)
+            throws IOException, InterruptedException {
+
+        if (pairs.isFull()) {
+            writeBlockPairs(context, pairs);
+        }
+
+        pairs.add(ComplexAccumulator.pack(rowBlock, columnBlock), 0.0d,
+                0.0d);
+    }
+
+
+    private static void writeBlockPairs(
+            Mapper<?, ?, LongWritable, NullWritable>.Context context,
+            ComplexAccumulator pairs) throws IOException,
+            InterruptedException {
+
+        LongWritable outputKey = new LongWritable();
+
+        for (int i = pairs.next(0); i > -1; i = pairs.next(i + 1)) {
+            outputKey.set(pairs.key(i));
+            context.write(outputKey, NullWritable.get());
+        }
+
+        pairs.clear();
+    }
+
+
+    /**
+     * Write each pair once.
+     */
+    public static class ReduceBlockPairs extends Reducer<LongWritable,
+            NullWritable, LongWritable, NullWritable> {
+
+        public void reduce(LongWritable key, Iterable<NullWritable> values,
+                Context context) throws IOException, InterruptedException {
+            context.write(key, NullWritable.get());
+        }
+    }
+
+
+    /**
+     * Write in the file BLOCKS of the input folder the pairs (row block,
+     * column block) that have elements of A. The file is kept for the next
+     * products: its first line has the block sizes and the name, the size
+     * and the time of each file of A, and the job runs again only when this
+     * line changes.
+     */
+    static Path blockPairs(Configuration conf, Path inputPath,
+            Path outputPath, long rowBlockSize, long columnBlockSize)
+            throws Exception {
+
+        FileSystem fs = inputPath.getFileSystem(conf);
+        FileStatus[] status = fs.listStatus(inputPath);
+        Path blocksPath = new Path(inputPath, BLOCKS);
+        Path tempPath = new Path(outputPath.toString() + "Blocks");
+        StringBuilder signature = new StringBuilder(Long.toString(
+                rowBlockSize) + "," + Long.toString(columnBlockSize));
+        List<Path> filesA = new ArrayList<Path>();
+        String line;
+        BufferedReader br;
+        BufferedWriter bw;
+        Job job;
+
+        Arrays.sort(status);
+        for (FileStatus stat : status) {
+            if (!stat.isDir() && MatrixFormat.isDataFile(stat.getPath())
+                    && "A".equals(MatrixFormat.fileType(conf, fs,
+                    stat.getPath()))) {
+                filesA.add(stat.getPath());
+                signature.append("," + stat.getPath().getName() + ":"
+                        + Long.toString(stat.getLen()) + ":"
+                        + Long.toString(stat.getModificationTime()));
+            }
+        }
+
+        if (fs.exists(blocksPath)) {
+            br = new BufferedReader(new InputStreamReader(fs.open(
+                    blocksPath)));
+            line = br.readLine();
+            br.close();
+
+            if (signature.toString().equals(line)) {
+                return blocksPath;
+            }
+        }
+
+        conf.setLong("rowBlockSize", rowBlockSize);
+        conf.setLong("columnBlockSize", columnBlockSize);
+
+        // Delete the output directory if it already exists.
+        fs.delete(tempPath, true);
+
+        // Create job
+        job = new Job(conf, "MatrixVectorBlocks");
+        job.setJarByClass(MultMatrix.class);
+
+        // Specify key / value
+        job.setOutputKeyClass(LongWritable.class);
+        job.setOutputValueClass(NullWritable.class);
+
+        // Setup MapReduce job
+        job.setCombinerClass(ReduceBlockPairs.class);
+        job.setReducerClass(ReduceBlockPairs.class);
+        job.setNumReduceTasks(1);
+
+        if (MatrixFormat.isBinary(conf, inputPath)) {
+            job.setMapperClass(BinaryMapBlockPairs.class);
+            MatrixFormat.setBinaryInput(job);
+        } else {
+            job.setMapperClass(MapBlockPairs.class);
+            job.setInputFormatClass(TextInputFormat.class);
+        }
+        job.setOutputFormatClass(TextOutputFormat.class);
+
+        // Input: only the files of A.
+        for (Path file : filesA) {
+            FileInputFormat.addInputPath(job, file);
+        }
+
+        // Output
+        FileOutputFormat.setOutputPath(job, tempPath);
+
+        // Execute job
+        if (!job.waitForCompletion(true)) {
+            throw new IOException("The job MatrixVectorBlocks failed.");
+        }
+
+        bw = new BufferedWriter(new OutputStreamWriter(fs.create(blocksPath,
+                true)));
+        bw.write(signature.toString());
+        bw.newLine();
+
+        for (FileStatus stat : fs.listStatus(tempPath)) {
+            if (!MatrixFormat.isDataFile(stat.getPath())) {
+                continue;
+            }
+
+            br = new BufferedReader(new InputStreamReader(fs.open(
+                    stat.getPath())));
+            while ((line = br.readLine()) != null) {
+                bw.write(line);
+                bw.newLine();
+            }
+            br.close();
+        }
+
+        bw.close();
+        fs.delete(tempPath, true);
+
+        return blocksPath;
+    }
+
+
+    /**
+     * Multiply each block of A by its block of the vector and sum the
+     * products of a row block in memory. The keys of a row block arrive in
+     * sequence, so the row block is written when the next one starts.
+     */
+    public static class ReduceVector extends
+            Reducer<BlockKey, Entry, Writable, Writable> {
+
+        private double[] vectorReal;
+        private double[] vectorImaginary;
+        private int[] vectorGroup;
+        private int group = 0;
+        private double[] sumReal;
+        private double[] sumImaginary;
+        private long rowBlockSize;
+        private long columnBlockSize;
+        private long numberRows;
+        private long currentRowBlock = -1;
+        private String typeMatrixOutput;
+        private boolean binaryOutput;
+
+        protected void setup(Context context) throws IOException,
+                InterruptedException {
+
+            Configuration conf = context.getConfiguration();
+
+            rowBlockSize = conf.getLong("rowBlockSize", 0);
+            columnBlockSize = conf.getLong("columnBlockSize", 0);
+            numberRows = conf.getLong("numberRowsOutput", 0);
+            typeMatrixOutput = conf.get("typeMatrixOutput");
+            binaryOutput = conf.getBoolean("binaryOutput", false);
+
+            vectorReal = new double[(int) columnBlockSize];
+            vectorImaginary = new double[(int) columnBlockSize];
+            vectorGroup = new int[(int) columnBlockSize];
+            sumReal = new double[(int) rowBlockSize];
+            sumImaginary = new double[(int) rowBlockSize];
+
+            // Write the vector dimension in the file.
+            if (!binaryOutput && context.getTaskAttemptID().getTaskID()
+                    .getId() == 0) {
+                context.write(null, new Text("#" + typeMatrixOutput + ","
+                        + Long.toString(numberRows) + ",1"));
+            }
+        }
+
+        public void reduce(BlockKey key, Iterable<Entry> values,
+                Context context) throws IOException, InterruptedException {
+
+            long firstRow;
+            long firstColumn = key.getColumnBlock() * columnBlockSize;
+            int idx;
+            int column;
+            double real;
+            double imaginary;
+
+            if (key.getRowBlock() != currentRowBlock) {
+                writeRowBlock(context);
+                currentRowBlock = key.getRowBlock();
+            }
+
+            firstRow = currentRowBlock * rowBlockSize;
+
+            // An element of the vector is valid only in its own group.
+            group++;
+
+            // The tag of the key changes with the values.
+            for (Entry val : values) {
+
+                if (key.getTag() == BlockKey.VECTOR) {
+                    idx = (int) (val.getRow() - firstColumn);
+                    vectorReal[idx] = val.getReal();
+                    vectorImaginary[idx] = val.getImaginary();
+                    vectorGroup[idx] = group;
+
+                } else {
+                    idx = (int) (val.getRow() - firstRow);
+                    column = (int) (val.getColumn() - firstColumn);
+
+                    if (vectorGroup[column] != group) {
+                        continue;
+                    }
+
+                    real = vectorReal[column];
+                    imaginary = vectorImaginary[column];
+
+                    sumReal[idx] += ComplexMath.multiplyReal(val.getReal(),
+                            val.getImaginary(), real, imaginary);
+                    sumImaginary[idx] += ComplexMath.multiplyImaginary(
+                            val.getReal(), val.getImaginary(), real,
+                            imaginary);
+                }
+            }
+        }
+
+        protected void cleanup(Context context) throws IOException,
+                InterruptedException {
+            writeRowBlock(context);
+        }
+
+        private void writeRowBlock(Context context) throws IOException,
+                InterruptedException {
+
+            long firstRow = currentRowBlock * rowBlockSize;
+
+            if (currentRowBlock < 0) {
+                return;
+            }
+
+            for (int i = 0; i < sumReal.length; i++) {
+
+                if (sumReal[i] != 0.0d || sumImaginary[i] != 0.0d) {
+
+                    if (binaryOutput) {
+                        context.write(new LongPair(firstRow + i, 0),
+                                new ComplexWritable(sumReal[i],
+                                sumImaginary[i]));
+                    } else {
+                        context.write(null, new Text(typeMatrixOutput + ","
+                                + Long.toString(firstRow + i) + ",0,"
+                                + Double.toString(sumReal[i]) + "j"
+                                + Double.toString(sumImaginary[i])));
+                    }
+                }
+            }
+
+            Arrays.fill(sumReal, 0.0d);
+            Arrays.fill(sumImaginary, 0.0d);
+        }
+    }
+
+
+    /**
+     * Calculate A * B in only one job when B is a vector. The vector is split
+     * in blocks of columnBlockSize elements and each block is sent to the
+     * row blocks of A that have elements in its column block. With more than
+     * one row block, these pairs are listed once by a small job in the file
+     * BLOCKS of the input folder.
+     */
+    public static boolean multiplyVector(Configuration conf, Path inputPath,
+            Path outputPath, String[] dimA, boolean binary) throws Exception {
+
+        long numberRows = Long.parseLong(dimA[0]);
+        long numberColumns = Long.parseLong(dimA[1]);
+        long rowBlockSize = Math.min(conf.getLong("rowBlockSize",
+                DEFAULT_BLOCK_SIZE), Math.max(numberRows, 1));
+        long columnBlockSize = Math.min(conf.getLong("columnBlockSize",
+                DEFAULT_BLOCK_SIZE), Math.max(numberColumns, 1));
+        Job job;
+
+        conf.setLong("rowBlockSize", rowBlockSize);
+        conf.setLong("columnBlockSize", columnBlockSize);
+        conf.setLong("numberRowBlocks", (numberRows + rowBlockSize - 1)
+                / rowBlockSize);
+        conf.setLong("numberRowsOutput", numberRows);
+
+        // Create job
+        job = new Job(conf, "MatrixVectorMultiplication");
+        job.setJarByClass(MultMatrix.class);
+
+        // With one row block every element of B is sent once.
+        if (conf.getLong("numberRowBlocks", 1) > 1) {
+            DistributedCache.addCacheFile(blockPairs(new Configuration(conf),
+                    inputPath, outputPath, rowBlockSize, columnBlockSize)
+                    .toUri(), job.getConfiguration());
+        }
+
+        // Specify key / value
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(Text.class);
+
+        // Setup MapReduce job
+        job.setReducerClass(ReduceVector.class);
+        job.setPartitionerClass(BlockPartitioner.class);
+        job.setGroupingComparatorClass(BlockGroupingComparator.class);
+
+        // Set Map output Key/Value type
+        job.setMapOutputKeyClass(BlockKey.class);
+        job.setMapOutputValueClass(Entry.class);
+
+        // The partitioner sends each row block to one reduce task.
+        if (ReducePlanner.isEnabled(conf)) {
+            job.setNumReduceTasks((int) Math.min(ReducePlanner
+                    .numberReduceTasks(conf, ReducePlanner.sample(conf,
+                    inputPath).elements()), conf.getLong("numberRowBlocks",
+                    1)));
+        }
+
+        if (binary) {
+            job.setMapperClass(BinaryMapVector.class);
+            MatrixFormat.setBinaryInput(job);
+            MatrixFormat.setBinaryOutput(job, conf.get("typeMatrixOutput"),
+                    dimA[0], "1");
+        } else {
+            job.setMapperClass(MapVector.class);
+            job.setInputFormatClass(TextInputFormat.class);
+            job.setOutputFormatClass(TextOutputFormat.class);
+        }
+
+        // Input
+        FileInputFormat.addInputPath(job, inputPath);
+
+        // Output
+        FileOutputFormat.setOutputPath(job, outputPath);
+
+        // Execute job
+        return job.waitForCompletion(true);
+    }
+
+
+    /**
+     * Calculate A * B in one job when the files of A or B are smaller than
+     * broadcastSize bytes. The small matrix is sent to all map tasks with
+     * the distributed cache. Return false if both matrices are big and
+     * throw an IOException if the job fails, so the caller does not run the
+     * product again with another job.
+     */
+    public static boolean multiplyBroadcast(Configuration conf,
+            Path inputPath, Path outputPath, String[] dimA, String[] dimB,
+            boolean binary) throws Exception {
+
+        long broadcastSize = conf.getLong("broadcastSize",
+                DEFAULT_BROADCAST_SIZE);
+        long sizeA = 0;
+        long sizeB = 0;
+        List<Path> filesA = new ArrayList<Path>();
+        List<Path> filesB = new ArrayList<Path>();
+        List<Path> small;
+        List<Path> big;
+        String type;
+        FileSystem fs = inputPath.getFileSystem(conf);
+        FileStatus[] status = fs.listStatus(inputPath);
+        Job job;
+
+        for (FileStatus stat : status) {
+            if (stat.isDir() || !MatrixFormat.isDataFile(stat.getPath())) {
+                continue;
+            }
+
+            type = MatrixFormat.fileType(conf, fs, stat.getPath());
+            if ("A".equals(type)) {
+                filesA.add(stat.getPath());
+                sizeA += stat.getLen();
+            } else {
+                if ("B".equals(type)) {
+                    filesB.add(stat.getPath());
+                    sizeB += stat.getLen();
+                }
+            }
+        }
+
+        // Broadcast the smaller matrix.
+        if (sizeB <= sizeA && sizeB <= broadcastSize) {
+            conf.set("broadcastType", "B");
+            small = filesB;
+            big = filesA;
+        } else {
+            if (sizeA <= broadcastSize) {
+                conf.set("broadcastType", "A");
+                small = filesA;
+                big = filesB;
+            } else {
+                return false;
+            }
+        }
+
+        // Create job
+        job = new Job(conf, "MatrixMultiplicationBroadcast");
+        job.setJarByClass(MultMatrix.class);
+
+        for (Path file : small) {
+            DistributedCache.addCacheFile(file.toUri(),
+                    job.getConfiguration());
+        }
+
+        // Specify key / value
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(Text.class);
+
+        // Setup MapReduce job
+        job.setCombinerClass(CombineResult.class);
+        job.setReducerClass(ReduceResult.class);
+
+        // Set Map output Key/Value type
+        job.setMapOutputKeyClass(LongWritable.class);
+        job.setMapOutputValueClass(ComplexWritable.class);
+
+        // The header of the output is written from the configuration.
+        job.getConfiguration().set("numberRowsOutput", dimA[0]);
+        job.getConfiguration().set("numberColumnsOutput", dimB[1]);
+
+        if (ReducePlanner.isEnabled(conf)) {
+            job.setNumReduceTasks(ReducePlanner.numberReduceTasks(conf,
+                    ReducePlanner.sample(conf, inputPath).elements()));
+        }
+
+        if (binary) {
+            job.setMapperClass(BinaryMapBroadcast.class);
+            MatrixFormat.setBinaryInput(job);
+            MatrixFormat.setBinaryOutput(job, conf.get("typeMatrixOutput"),
+                    dimA[0], dimB[1]);
+        } else {
+            job.setMapperClass(MapBroadcast.class);
+            job.setInputFormatClass(TextInputFormat.class);
+            job.setOutputFormatClass(TextOutputFormat.class);
+        }
+
+        // Input
+        for (Path file : big) {
+            FileInputFormat.addInputPath(job, file);
+        }
+
+        // Output
+        FileOutputFormat.setOutputPath(job, outputPath);
+
+        // Execute job
+        if (!job.waitForCompletion(true)) {
+            throw new IOException("The job MatrixMultiplicationBroadcast "
+                    + "failed.");
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Estimate the number of products of A * B, the sum over the inner
+     * index k of nnz(A(:,k)) * nnz(B(k,:)), from a sample of A and a sample
+     * of B. The types of the samples are not read, so the two matrices can
+     * be stored with the same type. It is also a bound of nnz(A * B).
+     */
+    public static double estimateProducts(ReducePlanner.Sample sampleA,
+            ReducePlanner.Sample sampleB) {
+
+        long[] columns = Arrays.copyOf(sampleA.columns, sampleA.size);
+        long[] rows = Arrays.copyOf(sampleB.rows, sampleB.size);
+        double products = 0.0d;
+        double countA;
+        double countB;
+        int i = 0;
+        int j = 0;
+
+        Arrays.sort(columns);
+        Arrays.sort(rows);
+
+        // Merge the sorted inner indexes of A and B.
+        while (i < columns.length && j < rows.length) {
+            if (columns[i] < rows[j]) {
+                i++;
+            } else {
+                if (columns[i] > rows[j]) {
+                    j++;
+                } else {
+                    countA = 0.0d;
+                    countB = 0.0d;
+
+                    for (long k = columns[i]; i < columns.length
+                            && columns[i] == k; i++) {
+                        countA += sampleA.weight;
+                    }
+                    for (long k = rows[j]; j < rows.length
+                            && rows[j] == k; j++) {
+                        countB += sampleB.weight;
+                    }
+
+                    products += countA * countB;
+                }
+            }
+        }
+
+        return products;
+    }
+
+
+    /**
+     * Choose the reduce tasks of the first job from a sample of the input.
+     * The work of the inner index k is about nnz(A(:,k)) * nnz(B(k,:)), so
+     * the ranges of k are balanced by this product and not by the number of
+     * keys: a few dense columns of A do not overload one reduce task. In the
+     * skew mode the indices with too many elements are split in parts.
+     */
+    private static void planInner(Job job, ReducePlanner.Sample sample) {
+
+        Configuration conf = job.getConfiguration();
+        long maxGroupSize = Math.max(conf.getLong("maxGroupSize",
+                DEFAULT_MAX_GROUP_SIZE), 1);
+        boolean skewMode = conf.getBoolean("skewMode", true);
+        List<String> skewedKeys = new ArrayList<String>();
+        long[] inner = new long[sample.size];
+        long[] keys = new long[sample.size];
+        double[] weights = new double[sample.size];
+        int size = 0;
+        double countA;
+        double countB;
+        double records = 0.0d;
+        long partsA;
+        long partsB;
+        int numberReduceTasks;
+        int j;
+
+        // The inner index of A is the column and of B is the row. The last
+        // bit is the type, so the sort groups the elements by index.
+        for (int i = 0; i < sample.size; i++) {
+            if (sample.typeA[i]) {
+                inner[i] = sample.columns[i] << 1;
+            } else {
+                inner[i] = (sample.rows[i] << 1) | 1;
+            }
+        }
+
+        Arrays.sort(inner);
+
+        for (int i = 0; i < inner.length; i = j) {
+
+            countA = 0.0d;
+            countB = 0.0d;
+
+            for (j = i; j < inner.length
+                    && (inner[j] >>> 1) == (inner[i] >>> 1); j++) {
+                if ((inner[j] & 1) == 0) {
+                    countA += sample.weight;
+                } else {
+                    countB += sample.weight;
+                }
+            }
+
+            keys[size] = inner[i] >>> 1;
+            weights[size] = countA * countB + countA + countB;
+            records += weights[size];
+
+            partsA = Math.max((long) Math.ceil(countA / maxGroupSize), 1);
+            partsB = Math.max((long) Math.ceil(countB / maxGroupSize), 1);
+
+            // Only one part of the index stays in its range.
+            if (skewMode && partsA * partsB > 1) {
+                skewedKeys.add(Long.toString(keys[size]) + ":"
+                        + Long.toString(partsA) + ":"
+                        + Long.toString(partsB));
+                weights[size] /= partsA * partsB;
+            }
+
+            size++;
+        }
+
+        if (!skewedKeys.isEmpty()) {
+            conf.setStrings("skewedKeys", skewedKeys.toArray(
+                    new String[skewedKeys.size()]));
+        }
+
+        if (!ReducePlanner.isEnabled(conf)) {
+            return;
+        }
+
+        numberReduceTasks = ReducePlanner.numberReduceTasks(conf, records);
+        job.setNumReduceTasks(numberReduceTasks);
+
+        if (numberReduceTasks > 1) {
+
+            // Each task of the fused mode writes its rows of the result.
+            if (conf.getBoolean("fusedMode", true)
+                    && conf.getBoolean("fusedFinal", true)) {
+                planRows(job, sample, numberReduceTasks);
+            } else {
+                ReducePlanner.setBounds(job, ReducePlanner.bounds(keys,
+                        weights, size, numberReduceTasks));
+            }
+        }
+    }
+
+
+    /**
+     * Split the rows of A in ranges of about the same number of elements
+     * for the fused mode. The range R of a row goes to the reduce task R.
+     */
+    private static void planRows(Job job, ReducePlanner.Sample sample,
+            int numberReduceTasks) {
+
+        long[] rows = new long[sample.size];
+        long[] keys = new long[sample.size];
+        double[] weights = new double[sample.size];
+        String[] values;
+        long[] bounds;
+        int number = 0;
+        int size = 0;
+        int j;
+
+        for (int i = 0; i < sample.size; i++) {
+            if (sample.typeA[i]) {
+                rows[number++] = sample.rows[i];
+            }
+        }
+
+        Arrays.sort(rows, 0, number);
+
+        for (int i = 0; i < number; i = j) {
+            j = i;
+            while (j < number && rows[j] == rows[i]) {
+                j++;
+            }
+
+            keys[size] = rows[i];
+            weights[size] = j - i;
+            size++;
+        }
+
+        bounds = ReducePlanner.bounds(keys, weights, size,
+                numberReduceTasks);
+        values = new String[bounds.length];
+
+        for (int i = 0; i < bounds.length; i++) {
+            values[i] = Long.toString(bounds[i]);
+        }
+
+        job.getConfiguration().setStrings("fusedRowBounds", values);
+        job.setPartitionerClass(RowRangePartitioner.class);
+    }
+
+
+    /**
+     * Set the number of sums kept in memory by the tasks of a phase, "map"
+     * or "reduce", when the option name is not given: the default, or less
+     * if the sums would use more than memoryFraction of the heap of a task.
+     */
+    private static void setAccumulatorSize(Configuration conf, String name,
+            String phase, int defaultSize) {
+
+        if (conf.get(name) == null) {
+            conf.setInt(name, (int) Math.max(Math.min(defaultSize,
+                    ReducePlanner.elementsInMemory(conf, phase,
+                    ComplexAccumulator.BYTES_PER_ENTRY)), 1));
+        }
+    }
+
+
+    /**
+     * Run the operation with the given configuration. A driver calls it to
+     * submit the jobs in its own JVM; the file systems are not closed.
+     */
+    public static void run(Configuration conf, String[] args)
+            throws Exception {
+
+        String[] dimA = new String[2];
+        String[] dimB = new String[2];
+        String tempPath;
+        String[] vals;
+        boolean binary;
+        boolean fused;
+
+        Path inputPath;
+        Path outputPath;
+        FileSystem fsInput;
+        FileStatus[] status;
+        FileSystem fs;
+        Job job;
+        Path inputPath2;
+        Path outputPath2;
+        FileSystem fs2;
+        Job job2;
+
+        // Options like -D rowBlockSize=N are set in the configuration.
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+        tempPath = args[0] + "TempSecondPass";
+
+        // Set if the output will be matrix type A ou type B
+        conf.set("typeMatrixOutput", args[2]);
+
+        // The input/output paths of the first Map/Reduce job
+        inputPath = new Path(args[0]);
+        outputPath = new Path(tempPath);
+
+        // The input/output paths of the second Map/Reduce job
+        inputPath2 = new Path(tempPath);
+        outputPath2 = new Path(args[1]);
+
+        fsInput = FileSystem.get(conf);
+        // The names of all files in the input path
+        status = fsInput.listStatus(inputPath);
+
+        for (int i = 0; i < status.length; i++) {
+
+            if (dimA[0] != null && dimA[1] != null && dimB[0] != null
+                    && dimB[1] != null) {
+                break;
+            }
+
+            if (!MatrixFormat.isDataFile(status[i].getPath())) {
+                continue;
+            }
+
+            vals = MatrixFormat.readHeader(conf, fsInput,
+                    status[i].getPath());
+
+            // File without header. Go to the next.
+            if (vals == null) {
+                continue;
+            }
+
+            if (vals[0].equals("#A")) {
+                dimA[0] = vals[1];
+                dimA[1] = vals[2];
+
+            } else {
+                if (vals[0].equals("#B")) {
+                    dimB[0] = vals[1];
+                    dimB[1] = vals[2];
+                }
+
+            }
+        }
+
+        // A is a Kronecker operator that was not calculated.
+        if (KronOperator.isOperator(conf, inputPath)) {
+            vals = KronOperator.readHeader(conf, inputPath);
+            dimA[0] = vals[1];
+            dimA[1] = vals[2];
+        }
+
+        binary = MatrixFormat.isBinary(conf, inputPath);
+        fused = conf.getBoolean("fusedMode", true);
+        conf.setBoolean("fusedFinal", !binary);
+
+
+        /*
+         * A_(m x n) and B_(p x q) -> verify if n==p,
+         * constraint for matrix multiplication
+         */
+        if (!dimA[1].equals(dimB[0])) {
+
+            throw new IllegalArgumentException("You can not perform the "
+                    + "multiplication between the matrices in the input "
+                    + "path. The number of columns in the matrix A must be "
+                    + "equal to the number of rows in the matrix B.");
+
+        }
+
+        fs = FileSystem.get(new URI(outputPath2.toString()), conf);
+
+        // Delete the output directory if it already exists.
+        fs.delete(outputPath2, true);
+
+        // Each factor of the operator is multiplied by B in its turn.
+        if (KronOperator.isOperator(conf, inputPath)) {
+            KronOperator.multiply(conf, inputPath, outputPath2, dimB,
+                    binary);
+            return;
+        }
+
+        // A or B is small, so it is sent to all map tasks.
+        if (multiplyBroadcast(conf, inputPath, outputPath2, dimA, dimB,
+                binary)) {
+            return;
+        }
+
+        // B is a vector, so the product needs only one job.
+        if (dimB[1].equals("1") && conf.getBoolean("vectorMode", true)) {
+            if (!multiplyVector(conf, inputPath, outputPath2, dimA,
+                    binary)) {
+                throw new IOException("The job MatrixVectorMultiplication "
+                        + "failed.");
+            }
+            return;
+        }
+
+
+        fs = FileSystem.get(new URI(outputPath.toString()), conf);
+
+        // Delete the output directory if it already exists.
+        fs.delete(outputPath, true);
+
+        // The header of the output is written from the configuration.
+        conf.set("numberRowsOutput", dimA[0]);
+        conf.set("numberColumnsOutput", dimB[1]);
+
+        // Create job
+        job = new Job(conf, "MatrixMultiplicationStep1");
+        job.setJarByClass(MultMatrix.class);
+
+        // Specify key / value
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(Text.class);
+
+        // Setup MapReduce job
+        if (fused) {
+            job.setReducerClass(ReduceFused.class);
+            setAccumulatorSize(job.getConfiguration(), "fusedMapSize",
+                    "reduce", DEFAULT_FUSED_MAP_SIZE);
+        } else {
+            job.setReducerClass(ReducePrepare.class);
+        }
+
+        // Set only the number of reduces tasks
+        if (ReducePlanner.isEnabled(conf)
+                || conf.getBoolean("skewMode", true)) {
+            planInner(job, ReducePlanner.sample(conf, inputPath));
+        }
+
+        if (binary) {
+            job.setMapperClass(BinaryMapPrepare.class);
+            MatrixFormat.setBinaryInput(job);
+        } else {
+            job.setMapperClass(MapPrepare.class);
+            job.setInputFormatClass(TextInputFormat.class);
+        }
+        job.setOutputFormatClass(TextOutputFormat.class);
+
+        // Input
+        FileInputFormat.addInputPath(job, inputPath);
+
+        // Output
+        FileOutputFormat.setOutputPath(job, outputPath);
+
+        // Execute job
+        if (!job.waitForCompletion(true)) {
+            throw new IOException("The job MatrixMultiplicationStep1 failed.");
+        }
+
+        // Start of the second Map/Reduce job
+        fs2 = FileSystem.get(new URI(outputPath2.toString()), conf);
+
+        // Delete the output directory if it already exists.
+        fs2.delete(outputPath2, true);
+
+        // Every task of the fused job wrote its rows of the final matrix.
+        if (fused && job.getCounters().findCounter(
+                FusedCounter.FINAL_OUTPUT).getValue()
+                == job.getNumReduceTasks()) {
+            fs2.rename(inputPath2, outputPath2);
+            return;
+        }
+
+        // Create job
+        job2 = new Job(conf, "MatrixMultiplicationStep2");
+        job2.setJarByClass(MultMatrix.class);
+
+        // Specify key / value
+        job2.setOutputKeyClass(Text.class);
+        job2.setOutputValueClass(Text.class);
+
+        // Setup MapReduce job
+        job2.setMapperClass(MapResult.class);
+        job2.setCombinerClass(CombineResult.class);
+        job2.setReducerClass(ReduceResult.class);
+        setAccumulatorSize(job2.getConfiguration(), "accumulatorSize", "map",
+                DEFAULT_ACCUMULATOR_SIZE);
+
+        // Set only the number of reduces tasks
+        if (ReducePlanner.isEnabled(conf)) {
+            job2.setNumReduceTasks(ReducePlanner.numberReduceTasks(conf,
+                    ReducePlanner.reduceOutputRecords(job)));
+        }
+
+        // Set Map output Key/Value type
+        job2.setMapOutputKeyClass(LongWritable.class);
+        job2.setMapOutputValueClass(ComplexWritable.class);
+
+        job2.setInputFormatClass(TextInputFormat.class);
+        job2.setOutputFormatClass(TextOutputFormat.class);
+
+        // A binary input gives a binary output.
+        if (binary) {
+            MatrixFormat.setBinaryOutput(job2, args[2], dimA[0], dimB[1]);
+        }
+
+        // Input
+        FileInputFormat.addInputPath(job2, inputPath2);
+
+        // Output
+        FileOutputFormat.setOutputPath(job2, outputPath2);
+
+        // Execute job
+        if (!job2.waitForCompletion(true)) {
+            throw new IOException("The job MatrixMultiplicationStep2 failed.");
+        }
+
+        // Delete the temporary directory after job execution.
+        fs2.delete(inputPath2, true);
+    }
+
+
+    public static void main(String[] args) throws Exception {
+
+        try {
+            run(new Configuration(), args);
         } catch (Exception e) {
             System.out.println(e);
+            System.exit(1);
         }
 
     }
@@ -43,29 +43,55 @@ import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
 
 public class NormMatrix {
 
+    /**
+     * Each map task adds the squares of its split and writes only one
+     * value in cleanup(), so the shuffle has one value per map task.
+     */
     public static class Map extends
             Mapper<LongWritable, Text, LongWritable, DoubleWritable> {
+
+        private KahanSum sum = new KahanSum();
+        private ComplexWritable element = new ComplexWritable();
+
         public void map(LongWritable key, Text value, Context context)
                 throws IOException, InterruptedException {
 
             String line = value.toString();
             // "," is the delimiter used in the input file.
             String[] records = line.split(",");
-            DoubleWritable output = new DoubleWritable();
-            double[] element = new double[2];
-            String[] vals;
 
             // # is the header of the matrix file.
             if (records[0].indexOf("#") == -1) {
 
-                vals = records[3].split("j");
-                element[0] = Double.parseDouble(vals[0]);
-                element[1] = Double.parseDouble(vals[1]);
-                output.set(element[0] * element[0] + element[1] * element[1]);
+                element.set(records[3]);
+                sum.add(ComplexMath.absSquare(element.getReal(),
+                        element.getImaginary()));
+            }
+        }
 
-                context.write(new LongWritable(0), output);
+        protected void cleanup(Context context) throws IOException,
+                InterruptedException {
+            context.write(new LongWritable(0), new DoubleWritable(sum.get()));
+        }
 
-            }
+    }
+
+
+    public static class BinaryMap extends
+            MatrixFormat.BinaryMapper<LongWritable, DoubleWritable> {
+
+        private KahanSum sum = new KahanSum();
+
+        public void map(LongPair key, ComplexWritable value, Context context)
+                throws IOException, InterruptedException {
+
+            sum.add(ComplexMath.absSquare(value.getReal(),
+                    value.getImaginary()));
+        }
+
+        protected void cleanup(Context context) throws IOException,
+                InterruptedException {
+            context.write(new LongWritable(0), new DoubleWritable(sum.get()));
         }
 
     }
@@ -78,13 +104,13 @@ public class NormMatrix {
                 Context context) throws IOException, InterruptedException {
 
             DoubleWritable output = new DoubleWritable();
-            double sum = 0.0d;
+            KahanSum sum = new KahanSum();
 
             for (DoubleWritable val : values) {
-                sum += val.get();
+                sum.add(val.get());
             }
 
-            output.set(sum);
+            output.set(sum.get());
 
             context.write(key, output);
 
@@ -97,72 +123,87 @@ public class NormMatrix {
         public void reduce(LongWritable key, Iterable<DoubleWritable> values,
                 Context context) throws IOException, InterruptedException {
 
-            double sum = 0.0d;
+            KahanSum sum = new KahanSum();
 
             for (DoubleWritable val : values) {
-                sum += val.get();
+                sum.add(val.get());
             }
 
-            context.write(null, new Text(Double.toString(Math.sqrt(sum))));
+            context.write(null, new Text(Double.toString(Math.sqrt(
+                    sum.get()))));
 
         }
     }
 
 
-    public static void main(String[] args) throws Exception {
+    /**
+     * Run the operation with the given configuration. A driver calls it to
+     * submit the jobs in its own JVM; the file systems are not closed.
+     */
+    public static void run(Configuration conf, String[] args)
+            throws Exception {
 
-        Configuration conf = new Configuration();
         Path inputPath;
         Path outputPath;
         FileSystem  fs;
         Job job;
 
-        try {
+        inputPath = new Path(args[0]);
+        outputPath = new Path(args[1]);
 
-            inputPath = new Path(args[0]);
-            outputPath = new Path(args[1]);
+        fs = FileSystem.get(new URI(outputPath.toString()), conf);
 
-            fs = FileSystem.get(new URI(outputPath.toString()), conf);
+        // Delete the output directory if it already exists.
+        fs.delete(outputPath, true);
 
-            // Delete the output directory if it already exists.
-            fs.delete(outputPath, true);
-            fs.close();
+        // Create job
+        job = new Job(conf, "MatrixNorm");
+        job.setJarByClass(NormMatrix.class);
 
-            // Create job
-            job = new Job(conf, "MatrixNorm");
-            job.setJarByClass(NormMatrix.class);
+        // Specify key / value
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(Text.class);
 
-            // Specify key / value
-            job.setOutputKeyClass(Text.class);
-            job.setOutputValueClass(Text.class);
+        // Setup MapReduce job
+        job.setCombinerClass(Combine.class);
+        job.setReducerClass(Reduce.class);
 
-            // Setup MapReduce job
-            job.setMapperClass(Map.class);
-            job.setCombinerClass(Combine.class);
-            job.setReducerClass(Reduce.class);
-
-            // Set only the number of reduces tasks
-            job.setNumReduceTasks(1);
+        // Set only the number of reduces tasks
+        job.setNumReduceTasks(1);
 
-            // Set Map output Key/Value type
-            job.setMapOutputKeyClass(LongWritable.class);
-            job.setMapOutputValueClass(DoubleWritable.class);
+        // Set Map output Key/Value type
+        job.setMapOutputKeyClass(LongWritable.class);
+        job.setMapOutputValueClass(DoubleWritable.class);
 
+        if (MatrixFormat.isBinary(conf, inputPath)) {
+            job.setMapperClass(BinaryMap.class);
+            MatrixFormat.setBinaryInput(job);
+        } else {
+            job.setMapperClass(Map.class);
             job.setInputFormatClass(TextInputFormat.class);
-            job.setOutputFormatClass(TextOutputFormat.class);
+        }
+        job.setOutputFormatClass(TextOutputFormat.class);
+
+        // Input
+        FileInputFormat.addInputPath(job, inputPath);
 
-            // Input
-            FileInputFormat.addInputPath(job, inputPath);
+        // Output
+        FileOutputFormat.setOutputPath(job, outputPath);
 
-            // Output
-            FileOutputFormat.setOutputPath(job, outputPath);
+        // Execute job
+        if (!job.waitForCompletion(true)) {
+            throw new IOException("The job MatrixNorm failed.");
+        }
+    }
 
-            // Execute job
-            job.waitForCompletion(true);
 
+    public static void main(String[] args) throws Exception {
 
+        try {
+            run(new Configuration(), args);
         } catch (Exception e) {
             System.out.println(e);
+            System.exit(1);
         }
 
     }
@@ -0,0 +1,555 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package operations;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.util.LineReader;
+
+
+/**
+ * Choose the number of reduce tasks of a job from the size of its input.
+ * The elements of the matrices are sampled at some positions of every file,
+ * so the planner knows the number of nonzero elements and how they are
+ * distributed without reading the whole input. The option autoReduceTasks
+ * turns the planner off.
+ *
+ * @version 1.0 17 Oct 2026
+ * @author David Souza
+ */
+
+
+public final class ReducePlanner {
+
+    /**
+     * Default number of records written by one reduce task.
+     */
+    private static final long DEFAULT_ELEMENTS_PER_REDUCE = 2000000;
+
+    /**
+     * Default maximum number of reduce tasks of a job.
+     */
+    private static final int DEFAULT_MAX_REDUCE_TASKS = 64;
+
+    /**
+     * Default number of elements read by the sample.
+     */
+    private static final int DEFAULT_SAMPLE_SIZE = 10000;
+
+    /**
+     * Number of consecutive elements read at each position of a file.
+     */
+    private static final int ELEMENTS_PER_POSITION = 100;
+
+    /**
+     * Heap of a task when the configuration has no option -Xmx, the default
+     * of mapred.child.java.opts.
+     */
+    private static final long DEFAULT_TASK_HEAP = 200L << 20;
+
+    /**
+     * Default fraction of the heap of a task used by a matrix in memory.
+     */
+    private static final float DEFAULT_MEMORY_FRACTION = 0.5f;
+
+
+    private ReducePlanner() {
+    }
+
+
+    /**
+     * Elements read at some positions of the files of a directory. The
+     * field weight is the estimated number of elements of the input
+     * represented by each element of the sample.
+     */
+    public static class Sample {
+
+        public int size = 0;
+        public boolean[] typeA;
+        public long[] rows;
+        public long[] columns;
+        public double weight = 0.0d;
+
+        private double elements = 0.0d;
+
+        Sample(int maxSize) {
+            typeA = new boolean[maxSize];
+            rows = new long[maxSize];
+            columns = new long[maxSize];
+        }
+
+        /**
+         * Estimated number of elements of the input.
+         */
+        public double elements() {
+            return elements;
+        }
+
+        private boolean isFull() {
+            return size == rows.length;
+        }
+
+        private void add(boolean a, long row, long column) {
+            typeA[size] = a;
+            rows[size] = row;
+            columns[size] = column;
+            size++;
+        }
+    }
+
+
+    /**
+     * Return true if the number of reduce tasks must be chosen by the
+     * planner.
+     */
+    public static boolean isEnabled(Configuration conf) {
+        return conf.getBoolean("autoReduceTasks", true);
+    }
+
+
+    /**
+     * Read about sampleSize elements of the matrices in a directory. Each
+     * file is read at a number of positions proportional to its size.
+     */
+    public static Sample sample(Configuration conf, Path inputPath)
+            throws IOException {
+
+        FileSystem fs = inputPath.getFileSystem(conf);
+        List<Path> files = new ArrayList<Path>();
+
+        for (FileStatus stat : fs.listStatus(inputPath)) {
+            files.add(stat.getPath());
+        }
+
+        return sample(conf, fs, files);
+    }
+
+
+    /**
+     * Read about sampleSize elements of the given files.
+     */
+    public static Sample sample(Configuration conf, FileSystem fs,
+            List<Path> paths) throws IOException {
+
+        int sampleSize = Math.max(conf.getInt("sampleSize",
+                DEFAULT_SAMPLE_SIZE), 1);
+        List<FileStatus> files = new ArrayList<FileStatus>();
+        Sample sample = new Sample(sampleSize);
+        FileStatus stat;
+        long totalSize = 0;
+        long sampledSize = 0;
+        long positions;
+        int before;
+        double bytes;
+
+        for (Path path : paths) {
+            stat = fs.getFileStatus(path);
+            if (!stat.isDir() && MatrixFormat.isDataFile(stat.getPath())
+                    && stat.getLen() > 0) {
+                files.add(stat);
+                totalSize += stat.getLen();
+            }
+        }
+
+        for (FileStatus file : files) {
+
+            // Positions of this file, at least one.
+            positions = Math.max(1, (long) sampleSize * file.getLen()
+                    / totalSize / ELEMENTS_PER_POSITION);
+            before = sample.size;
+
+            if (MatrixFormat.isBinaryFile(fs, file.getPath())) {
+                bytes = sampleBinary(conf, fs, file, positions, sample);
+            } else {
+                bytes = sampleText(conf, fs, file, positions, sample);
+            }
+
+            // Elements of the file = length / bytes of one element.
+            if (sample.size > before) {
+                sample.elements += file.getLen() * (sample.size - before)
+                        / bytes;
+                sampledSize += file.getLen();
+            }
+
+            if (sample.isFull()) {
+                break;
+            }
+        }
+
+        // The files not read have the mean size of an element.
+        if (sampledSize > 0 && sampledSize < totalSize) {
+            sample.elements += sample.elements * (totalSize - sampledSize)
+                    / sampledSize;
+        }
+
+        if (sample.size > 0) {
+            sample.weight = sample.elements / sample.size;
+        }
+
+        return sample;
+    }
+
+
+    /**
+     * Sample a text file. Return the number of bytes read for the elements
+     * added to the sample.
+     */
+    private static double sampleText(Configuration conf, FileSystem fs,
+            FileStatus stat, long positions, Sample sample)
+            throws IOException {
+
+        FSDataInputStream in = fs.open(stat.getPath());
+        Text line = new Text();
+        String[] records;
+        long bytes = 0;
+        long position = 0;
+        long offset;
+        int length;
+
+        try {
+            for (long p = 0; p < positions && !sample.isFull(); p++) {
+
+                // Skip the positions that were already read.
+                offset = stat.getLen() * p / positions;
+                if (p > 0 && offset < position) {
+                    continue;
+                }
+
+                in.seek(offset);
+                LineReader lr = new LineReader(in, conf);
+                position = offset;
+
+                // The first line after a seek is incomplete.
+                if (p > 0) {
+                    position += lr.readLine(line);
+                }
+
+                for (int i = 0; i < ELEMENTS_PER_POSITION
+                        && !sample.isFull(); i++) {
+
+                    length = lr.readLine(line);
+                    if (length == 0) {
+                        break;
+                    }
+
+                    position += length;
+
+                    records = line.toString().split(",");
+
+                    // # is the header of the matrix.
+                    if (records.length == 4
+                            && records[0].indexOf("#") == -1) {
+                        sample.add(records[0].equals("A"),
+                                Long.parseLong(records[1]),
+                                Long.parseLong(records[2]));
+                        bytes += length;
+                    }
+                }
+            }
+        } finally {
+            in.close();
+        }
+
+        return bytes;
+    }
+
+
+    /**
+     * Sample a binary file. Return the number of bytes read for the
+     * elements added to the sample.
+     */
+    private static double sampleBinary(Configuration conf, FileSystem fs,
+            FileStatus stat, long positions, Sample sample)
+            throws IOException {
+
+        boolean a = "A".equals(MatrixFormat.readMetadata(conf, fs,
+                stat.getPath())[MatrixFormat.META_TYPE]);
+        SequenceFile.Reader reader = new SequenceFile.Reader(fs,
+                stat.getPath(), conf);
+        LongPair index = new LongPair();
+        ComplexWritable value = new ComplexWritable();
+        long bytes = 0;
+        long position;
+        long offset;
+
+        try {
+            for (long p = 0; p < positions && !sample.isFull(); p++) {
+
+                // Go to the first record after a sync mark. Skip the
+                // positions that were already read.
+                if (p > 0) {
+                    offset = stat.getLen() * p / positions;
+                    if (offset <= reader.getPosition()) {
+                        continue;
+                    }
+                    reader.sync(offset);
+                }
+
+                position = reader.getPosition();
+
+                for (int i = 0; i < ELEMENTS_PER_POSITION
+                        && !sample.isFull(); i++) {
+
+                    if (!reader.next(index, value)) {
+                        break;
+                    }
+
+                    sample.add(a, index.getRow(), index.getColumn());
+                    bytes += reader.getPosition() - position;
+                    position = reader.getPosition();
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        return bytes;
+    }
+
+
+    /**
+     * Maximum heap in bytes of a map or a reduce task, read from the option
+     * -Xmx of the tasks or from the memory of the container.
+     */
+    public static long taskHeap(Configuration conf, String phase) {
+
+        String[] options = {conf.get("mapred." + phase + ".child.java.opts"),
+                conf.get("mapreduce." + phase + ".java.opts"),
+                conf.get("mapred.child.java.opts")};
+        long memory = conf.getLong("mapreduce." + phase + ".memory.mb", -1);
+        long size;
+        char unit;
+
+        for (String option : options) {
+            if (option == null) {
+                continue;
+            }
+
+            for (String value : option.trim().split("\\s+")) {
+                if (!value.startsWith("-Xmx") || value.length() < 5) {
+                    continue;
+                }
+
+                unit = Character.toLowerCase(value.charAt(value.length()
+                        - 1));
+
+                if (Character.isDigit(unit)) {
+                    return Long.parseLong(value.substring(4));
+                }
+
+                size = Long.parseLong(value.substring(4, value.length() - 1));
+
+                if (unit == 'g') {
+                    return size << 30;
+                } else {
+                    if (unit == 'm') {
+                        return size << 20;
+                    } else {
+                        return size << 10;
+                    }
+                }
+            }
+        }
+
+        // The JVM of a container has a part of its memory as heap.
+        if (memory > 0) {
+            return (long) (memory * 0.8d) << 20;
+        }
+
+        return DEFAULT_TASK_HEAP;
+    }
+
+
+    /**
+     * Number of elements of a matrix that fit in the memory of a task when
+     * each element uses bytesPerElement bytes. Only memoryFraction of the
+     * heap is used.
+     */
+    public static long elementsInMemory(Configuration conf, String phase,
+            long bytesPerElement) {
+        return (long) (taskHeap(conf, phase) * conf.getFloat(
+                "memoryFraction", DEFAULT_MEMORY_FRACTION)
+                / Math.max(bytesPerElement, 1));
+    }
+
+
+    /**
+     * Number of reduce tasks for a job whose reduce tasks write the given
+     * number of records, between 1 and maxReduceTasks.
+     */
+    public static int numberReduceTasks(Configuration conf, double records) {
+
+        long elementsPerReduce = Math.max(conf.getLong("elementsPerReduce",
+                DEFAULT_ELEMENTS_PER_REDUCE), 1);
+        int maxReduceTasks = Math.max(conf.getInt("maxReduceTasks",
+                DEFAULT_MAX_REDUCE_TASKS), 1);
+        double tasks = Math.ceil(records / elementsPerReduce);
+
+        return (int) Math.max(1, Math.min(tasks, maxReduceTasks));
+    }
+
+
+    /**
+     * Split sorted keys in ranges of about the same total weight. Return
+     * the first key of each range after the first one.
+     */
+    public static long[] bounds(long[] keys, double[] weights, int size,
+            int numberPartitions) {
+
+        List<Long> bounds = new ArrayList<Long>();
+        double total = 0.0d;
+        double sum = 0.0d;
+        double start = 0.0d;
+        long[] result;
+
+        for (int i = 0; i < size; i++) {
+            total += weights[i];
+        }
+
+        for (int i = 0; i < size
+                && bounds.size() < numberPartitions - 1; i++) {
+
+            /*
+             * The range has its share of the weight that is left, so this
+             * key starts the next one. A heavy key takes a range alone and
+             * the other keys are split among the other ranges.
+             */
+            if (i > 0 && sum - start >= (total - start)
+                    / (numberPartitions - bounds.size())) {
+                bounds.add(keys[i]);
+                start = sum;
+            }
+
+            sum += weights[i];
+        }
+
+        result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Use the RangePartitioner with the given bounds in a job.
+     */
+    public static void setBounds(Job job, long[] bounds) {
+
+        String[] values = new String[bounds.length];
+
+        for (int i = 0; i < bounds.length; i++) {
+            values[i] = Long.toString(bounds[i]);
+        }
+
+        job.getConfiguration().setStrings("partitionBounds", values);
+        job.setPartitionerClass(RangePartitioner.class);
+    }
+
+
+    /**
+     * Number of records written by the reduce tasks of a finished job.
+     */
+    public static long reduceOutputRecords(Job job) throws IOException {
+        return job.getCounters().findCounter(
+                "org.apache.hadoop.mapred.Task$Counter",
+                "REDUCE_OUTPUT_RECORDS").getValue();
+    }
+
+
+    /**
+     * Send a numeric key to the range of partitionBounds that contains it.
+     * The key NUMBER_PART is a part of a key split by its size: the part p
+     * goes p partitions after the range of NUMBER. A key that is not a
+     * number, like the header, goes to the first partition.
+     */
+    public static class RangePartitioner<VALUE> extends
+            Partitioner<Text, VALUE> implements Configurable {
+
+        private Configuration conf;
+        private long[] bounds = new long[0];
+
+        public void setConf(Configuration conf) {
+
+            String[] values = conf.getStrings("partitionBounds");
+
+            this.conf = conf;
+
+            if (values != null) {
+                bounds = new long[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    bounds[i] = Long.parseLong(values[i]);
+                }
+            }
+        }
+
+        public Configuration getConf() {
+            return conf;
+        }
+
+        public int getPartition(Text key, VALUE value, int numPartitions) {
+
+            byte[] bytes = key.getBytes();
+            int length = key.getLength();
+            long number = 0;
+            long part = 0;
+            int low = 0;
+            int high = bounds.length;
+            int middle;
+            int i = 0;
+
+            for (; i < length && bytes[i] != '_'; i++) {
+                if (bytes[i] < '0' || bytes[i] > '9') {
+                    return 0;
+                }
+                number = number * 10 + (bytes[i] - '0');
+            }
+
+            for (i++; i < length; i++) {
+                if (bytes[i] < '0' || bytes[i] > '9') {
+                    return 0;
+                }
+                part = part * 10 + (bytes[i] - '0');
+            }
+
+            // Number of bounds smaller or equal to the key.
+            while (low < high) {
+                middle = (low + high) >>> 1;
+                if (bounds[middle] <= number) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+
+            return (int) ((Math.min(low, numPartitions - 1) + part)
+                    % numPartitions);
+        }
+    }
+}
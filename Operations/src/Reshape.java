@@ -17,8 +17,6 @@ package operations;
 
 import java.io.IOException;
 import java.net.URI;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
 
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.FileSystem;
@@ -34,6 +32,7 @@ import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
 
 
 /**
@@ -73,54 +72,131 @@ public class Reshape {
     private static final int VALUE = 3;
 
 
+    /**
+     * In the map-only mode there is no key: each map task writes its lines
+     * in the order of its split and the header is written by the driver in
+     * its own file.
+     */
     public static class Map extends
             Mapper<LongWritable, Text, LongWritable, Text> {
-        public void map(LongWritable key, Text value, Context context)
-                throws IOException, InterruptedException {
+
+        private boolean mapOnly;
+        private long[] strides;
+        private String fullInput;
+
+        protected void setup(Context context) throws IOException,
+                InterruptedException {
 
             Configuration conf = context.getConfiguration();
+
+            mapOnly = conf.getBoolean("mapOnly", false);
             // The new shape of the array
-            String[] input = conf.get("input").split(",");
-            String fullInput = conf.get("input");
+            fullInput = conf.get("input");
+            strides = strides(fullInput);
+        }
+
+        public void map(LongWritable key, Text value, Context context)
+                throws IOException, InterruptedException {
+
             String line = value.toString();
             // "," is the delimiter used in the input file.
             String[] records = line.split(",");
-            int[] output = new int[input.length];
-            int total = 1;
-            int idx = Integer.parseInt(records[INDEX]);
             String fullOutput = records[TYPE] + ",";
 
             // # is the header of the matrix file.
             if (records[TYPE].indexOf("#") == -1) {
 
-                for (int i = 0; i < input.length; i++) {
+                fullOutput += newIndex(strides, Long.parseLong(
+                        records[INDEX])) + records[VALUE];
 
-                    for (int j = i + 1; j < input.length; j++) {
+                context.write(mapOnly ? null : key, new Text(fullOutput));
 
-                        total *= Integer.parseInt(input[j]);
-                    }
-
-                    output[i] = (int) (idx / total);
-                    idx -= output[i] * total;
-                    total = 1;
+            } else {
 
+                if (!mapOnly) {
+                    context.write(key, new Text(records[TYPE] + ","
+                            + fullInput));
                 }
+            }
+        }
 
-                for (int i = 0; i < output.length; i++) {
+    }
 
-                    fullOutput += Integer.toString(output[i]) + ",";
-                }
 
-                fullOutput += records[VALUE];
+    public static class BinaryMap extends
+            MatrixFormat.BinaryMapper<LongWritable, Text> {
 
-                context.write(key, new Text(fullOutput));
+        private boolean mapOnly;
+        private long[] strides;
 
-            } else {
+        protected void setup(Context context) throws IOException,
+                InterruptedException {
+
+            super.setup(context);
+            mapOnly = context.getConfiguration().getBoolean("mapOnly", false);
+            strides = strides(context.getConfiguration().get("input"));
+
+            // The header is the first line of the output.
+            if (header && !mapOnly) {
+                context.write(new LongWritable(-1), new Text("#" + type + ","
+                        + context.getConfiguration().get("input")));
+            }
+        }
+
+        public void map(LongPair key, ComplexWritable value, Context context)
+                throws IOException, InterruptedException {
+
+            String fullOutput = type + "," + newIndex(strides, key.getRow());
 
-                context.write(key , new Text(records[TYPE] + "," + fullInput));
+            // The output of AbsSquare is real.
+            if (value.getImaginary() == 0.0d) {
+                fullOutput += Double.toString(value.getReal());
+            } else {
+                fullOutput += value.toString();
             }
+
+            // The flat index keeps the order of the elements.
+            context.write(mapOnly ? null : new LongWritable(key.getRow()),
+                    new Text(fullOutput));
+        }
+
+    }
+
+
+    /**
+     * Return the strides of a shape: the stride of an axis is the product of
+     * the dimensions of the next axes.
+     */
+    public static long[] strides(String shape) {
+
+        String[] input = shape.split(",");
+        long[] strides = new long[input.length];
+
+        strides[input.length - 1] = 1;
+        for (int i = input.length - 2; i >= 0; i--) {
+            strides[i] = strides[i + 1] * Long.parseLong(input[i + 1]);
+        }
+
+        return strides;
+    }
+
+
+    /**
+     * Return the indexes in the new shape of the element in the position idx
+     * of the array. Each index is followed by the character comma.
+     */
+    public static String newIndex(long[] strides, long idx) {
+
+        StringBuilder fullOutput = new StringBuilder();
+        long index;
+
+        for (int i = 0; i < strides.length; i++) {
+            index = idx / strides[i];
+            idx -= index * strides[i];
+            fullOutput.append(index).append(',');
         }
 
+        return fullOutput.toString();
     }
 
 
@@ -137,51 +213,83 @@ public class Reshape {
     }
 
 
+    /**
+     * Verify the header and the lines of the input. Throw an
+     * IllegalArgumentException if the input does not fit with the new shape.
+     */
     public static void verifyFormat(FileSystem fs, Path inputPath,
-            String input) {
+            String input) throws IOException {
 
-        BufferedReader br;
+        MatrixFormat.LineReader br;
         FileStatus[] status;
         String line;
         String matrixType = "";
         String[] vals;
         String[] newShape;
-        int[] valueShape;
-        int numberShape = 1;
+        long[] valueShape;
+        long numberShape = 1;
         boolean header = false;
 
-        try {
+        status = fs.listStatus(inputPath);
+        for (int i = 0; i < status.length; i++) {
 
-            status = fs.listStatus(inputPath);
-            for (int i = 0; i < status.length; i++) {
+            if (!MatrixFormat.isDataFile(status[i].getPath())) {
+                continue;
+            }
 
-                if (status[i].getPath().toString().indexOf("_logs") > -1) {
-                    continue;
-                } else {
-                    if (status[i].getPath().toString().indexOf("_SUCCESS") > -1) {
-                        continue;
-                    }
+            br = new MatrixFormat.LineReader(fs.getConf(), fs,
+                    status[i].getPath());
+
+            line = br.readLine();
+
+            if (line == null) {
+                br.close();
+                continue;
+            }
+
+            if (line.indexOf("#A") > -1) {
+
+                header = true;
+                vals = line.split(",");
+                newShape = input.split(",");
+                valueShape = new long[newShape.length];
+
+                for (int j = 0; j < newShape.length; j++) {
+
+                    valueShape[j] = Long.parseLong(newShape[j]);
                 }
 
-                br = new BufferedReader(new InputStreamReader(fs.open(status[i].
-                        getPath())));
+                for (int j = 0; j < valueShape.length; j++) {
 
-                line = br.readLine();
+                    numberShape *= valueShape[j];
+                }
+
+                if (numberShape != Long.parseLong(vals[1])) {
+
+                    throw new IllegalArgumentException("The shape given "
+                            + "in the input does not fit with the "
+                            + "dimension in the input file.");
+                }
+
+                if (matrixType.isEmpty()) {
 
-                if (line == null) {
-                    continue;
+                    matrixType = "A";
                 }
+                
+                line = br.readLine();
 
-                if (line.indexOf("#A") > -1) {
+            } else {
+
+                if (line.indexOf("#B") > -1) {
 
                     header = true;
                     vals = line.split(",");
                     newShape = input.split(",");
-                    valueShape = new int[newShape.length];
+                    valueShape = new long[newShape.length];
 
                     for (int j = 0; j < newShape.length; j++) {
 
-                        valueShape[j] = Integer.parseInt(newShape[j]);
+                        valueShape[j] = Long.parseLong(newShape[j]);
                     }
 
                     for (int j = 0; j < valueShape.length; j++) {
@@ -189,181 +297,164 @@ public class Reshape {
                         numberShape *= valueShape[j];
                     }
 
-                    if (numberShape != Integer.parseInt(vals[1])) {
+                    if (numberShape != Long.parseLong(vals[1])) {
 
-                        System.out.println("The shape given in the input does "
-                                + "not fit with the dimension in the input file"
-                                + ".");
-                        System.exit(1);
+                        throw new IllegalArgumentException("The shape "
+                                + "given in the input does not fit with "
+                                + "the dimension in the input file.");
                     }
 
-                    if (matrixType == "") {
+                    if (matrixType.isEmpty()) {
 
-                        matrixType = "A";
+                        matrixType = "B";
                     }
-                    
-                    line = br.readLine();
-
-                } else {
-
-                    if (line.indexOf("#B") > -1) {
-
-                        header = true;
-                        vals = line.split(",");
-                        newShape = input.split(",");
-                        valueShape = new int[newShape.length];
-
-                        for (int j = 0; j < newShape.length; j++) {
-
-                            valueShape[j] = Integer.parseInt(newShape[j]);
-                        }
 
-                        for (int j = 0; j < valueShape.length; j++) {
-
-                            numberShape *= valueShape[j];
-                        }
-
-                        if (numberShape != Integer.parseInt(vals[1])) {
-
-                            System.out.println("The shape given in the input "
-                                    + "does not fit with the dimension in the "
-                                    + "input file.");
-                            System.exit(1);
-                        }
-
-                        if (matrixType == "") {
-
-                            matrixType = "B";
-                        }
-
-                        line = br.readLine();                         
-                    }                   
-                }
+                    line = br.readLine();                         
+                }                   
+            }
 
-                if (line == null) {
-                    continue;
-                }
+            if (line == null) {
+                br.close();
+                continue;
+            }
 
-                vals = line.split(",");
+            vals = line.split(",");
 
-                if (matrixType == "") {
+            if (matrixType.isEmpty()) {
 
-                    if ((vals[0] == "A") || (vals[0] == "B")) {
+                if (vals[0].equals("A") || vals[0].equals("B")) {
 
-                        matrixType = vals[0];
-                    } else {
+                    matrixType = vals[0];
+                } else {
 
-                        matrixType = "";
-                    }
+                    matrixType = "";
                 }
-
-                if ((vals.length != ARRAY_LENGTH)
-                        || !vals[0].equals(matrixType)) {
-
-                    System.out.println("======================================="
-                            + "==============\nThe format of the input array is"
-                            + " not supported.\nPut it in this format:\n\t"
-                            + "matrixType,index,extraIndex,value\nWith:\n"
-                            + "\tmatrixType = A or B\n\tindex = integer number"
-                            + "\n\textraIndex = 0 (integer zero)\n\tvalue = "
-                            + "any number type\n\nThe file should have a header"
-                            + ":\n\t#matrixType,index,extraIndex\n"
-                            + "With:\n\tmatrixType = A or B\n\tindex = integer "
-                            + "number\n\textraIndex = 1 (integer one)\n========"
-                            + "=============================================");
-
-                    System.exit(1);
-                }                
-
-                br.close();
             }
 
-            if (matrixType == "") {
+            if ((vals.length != ARRAY_LENGTH)
+                    || !vals[0].equals(matrixType)) {
+
+                throw new IllegalArgumentException("The format of the "
+                        + "input array is not supported.\nPut it in this "
+                        + "format:\n\tmatrixType,index,extraIndex,value\n"
+                        + "With:\n\tmatrixType = A or B\n\tindex = "
+                        + "integer number\n\textraIndex = 0 (integer zero)"
+                        + "\n\tvalue = any number type\n\nThe file should "
+                        + "have a header:\n\t#matrixType,index,extraIndex\n"
+                        + "With:\n\tmatrixType = A or B\n\tindex = "
+                        + "integer number\n\textraIndex = 1 (integer one)");
+            }                
+
+            br.close();
+        }
 
-                System.out.println("The input has no data files.");
-                System.exit(1);
-            }
+        if (matrixType.isEmpty()) {
 
-            if (!header) {
+            throw new IllegalArgumentException("The input has no data "
+                    + "files.");
+        }
 
-                System.out.println("The input has no header.");
-                System.exit(1);
-            }
+        if (!header) {
 
-        } catch (Exception e) {
-            System.out.println(e);
+            throw new IllegalArgumentException("The input has no header.");
         }
     }
 
 
-    public static void main(String[] args) throws Exception {
+    /**
+     * Run the operation with the given configuration. A driver calls it to
+     * submit the jobs in its own JVM; the file systems are not closed.
+     */
+    public static void run(Configuration conf, String[] args)
+            throws Exception {
 
-        Configuration conf = new Configuration();
         Path inputPath;
         Path outputPath;
         FileSystem  fs;
         Job job;
+        boolean mapOnly;
 
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+        inputPath = new Path(args[1]);
+        outputPath = new Path(args[2]);
+        mapOnly = conf.getBoolean("mapOnly", false);
 
-        try {
-
-            inputPath = new Path(args[1]);
-            outputPath = new Path(args[2]);
-
-            fs = FileSystem.get(new URI(outputPath.toString()), conf);
+        fs = FileSystem.get(new URI(outputPath.toString()), conf);
 
-            /*
-             * Disable the map output compression in Hadoop for gain of
-             * performance
-             */
-            conf.set("mapred.compress.map.output", "false");
+        /*
+         * Disable the map output compression in Hadoop for gain of
+         * performance
+         */
+        conf.set("mapred.compress.map.output", "false");
 
-            // Set the key/value separator
-            conf.set("mapred.textoutputformat.separator", ",");
+        // Set the key/value separator
+        conf.set("mapred.textoutputformat.separator", ",");
 
-            // The new shape of the array
-            conf.set("input", args[0]);
+        // The new shape of the array
+        conf.set("input", args[0]);
 
-            verifyFormat(fs, inputPath, args[0]);
+        verifyFormat(fs, inputPath, args[0]);
 
-            // Delete the output directory if it already exists.
-            fs.delete(outputPath, true);
-            fs.close();
+        // Delete the output directory if it already exists.
+        fs.delete(outputPath, true);
 
-            // Create job
-            job = new Job(conf, "Reshape");
-            job.setJarByClass(Reshape.class);
+        // Create job
+        job = new Job(conf, "Reshape");
+        job.setJarByClass(Reshape.class);
 
-            // Specify key / value
-            job.setOutputKeyClass(Text.class);
-            job.setOutputValueClass(Text.class);
+        // Specify key / value
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(Text.class);
 
+        if (mapOnly) {
+            // Each element is written by its map task.
+            job.setNumReduceTasks(0);
+        } else {
             // Setup MapReduce job
-            job.setMapperClass(Map.class);
             job.setReducerClass(Reduce.class);
 
             // Set only the number of reduces tasks
             job.setNumReduceTasks(1);
+        }
 
-            // Set Map output Key/Value type
-            job.setMapOutputKeyClass(LongWritable.class);
-            job.setMapOutputValueClass(Text.class);
+        // Set Map output Key/Value type
+        job.setMapOutputKeyClass(LongWritable.class);
+        job.setMapOutputValueClass(Text.class);
 
+        if (MatrixFormat.isBinary(conf, inputPath)) {
+            job.setMapperClass(BinaryMap.class);
+            MatrixFormat.setBinaryInput(job);
+        } else {
+            job.setMapperClass(Map.class);
             job.setInputFormatClass(TextInputFormat.class);
-            job.setOutputFormatClass(TextOutputFormat.class);
+        }
+        job.setOutputFormatClass(TextOutputFormat.class);
 
-            // Input
-            FileInputFormat.addInputPath(job, inputPath);
+        // Input
+        FileInputFormat.addInputPath(job, inputPath);
 
-            // Output
-            FileOutputFormat.setOutputPath(job, outputPath);
+        // Output
+        FileOutputFormat.setOutputPath(job, outputPath);
 
-            // Execute job
-            job.waitForCompletion(true);
+        // Execute job
+        if (!job.waitForCompletion(true)) {
+            throw new IOException("The job Reshape failed.");
+        }
+
+        if (mapOnly) {
+            MatrixFormat.writeHeader(conf, outputPath, MatrixFormat
+                    .findHeader(conf, inputPath)[0] + "," + args[0]);
+        }
+    }
 
 
+    public static void main(String[] args) throws Exception {
+
+        try {
+            run(new Configuration(), args);
         } catch (Exception e) {
             System.out.println(e);
+            System.exit(1);
         }
 
     }
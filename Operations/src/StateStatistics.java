@@ -0,0 +1,499 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package operations;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+
+/**
+ * This software calculate a set of statistics of a state vector in only one
+ * pass over the elements using Apache Hadoop. Each map task keeps partial
+ * results of its split in memory and writes them in cleanup(), so the
+ * shuffle has a few values per map task. The statistics are chosen with
+ * the option statistics:
+ *
+ *      norm: the norm of the vector.
+ *      entropy: the Shannon entropy in bits of the probabilities.
+ *      max: the element with the largest absolute value.
+ *      top: the topSize most likely basis states.
+ *      probabilities: the square of the absolute value of each element, in
+ *                     the folder probabilities of the output.
+ *
+ * @version 1.0 17 Oct 2026
+ * @author David Souza
+ */
+
+
+public class StateStatistics {
+
+    /**
+     * Default statistics of the job.
+     */
+    private static final String DEFAULT_STATISTICS = "norm,entropy,max,top";
+
+    /**
+     * Default number of the most likely basis states.
+     */
+    private static final int DEFAULT_TOP_SIZE = 10;
+
+    /**
+     * Named output and folder of the probabilities.
+     */
+    private static final String PROBABILITIES = "probabilities";
+
+
+    /**
+     * A basis state and its probability. The head of the queue of the top
+     * states is the least likely, so it is replaced first.
+     */
+    public static class State implements Comparable<State> {
+
+        private long index;
+        private double probability;
+
+        public State(long index, double probability) {
+            this.index = index;
+            this.probability = probability;
+        }
+
+        public int compareTo(State other) {
+
+            if (probability != other.probability) {
+                return probability < other.probability ? -1 : 1;
+            }
+
+            // The smaller index wins a tie.
+            return index > other.index ? -1 : (index < other.index ? 1 : 0);
+        }
+    }
+
+
+    /**
+     * The partial results of the statistics, in a map task or in the
+     * reduce task.
+     */
+    public static class Statistics {
+
+        private boolean norm;
+        private boolean entropy;
+        private boolean max;
+        private boolean top;
+        private int topSize;
+        private KahanSum sum = new KahanSum();
+        private KahanSum sumLog = new KahanSum();
+        private long maxIndex = -1;
+        private double maxAbs = -1.0d;
+        private String maxValue;
+        private PriorityQueue<State> states = new PriorityQueue<State>();
+
+        public Statistics(Configuration conf) {
+
+            String statistics = "," + conf.get("statistics",
+                    DEFAULT_STATISTICS) + ",";
+
+            norm = statistics.indexOf(",norm,") > -1;
+            entropy = statistics.indexOf(",entropy,") > -1;
+            max = statistics.indexOf(",max,") > -1;
+            top = statistics.indexOf(",top,") > -1;
+            topSize = Math.max(conf.getInt("topSize", DEFAULT_TOP_SIZE), 1);
+        }
+
+        /**
+         * Keep the state if it is one of the topSize most likely states.
+         */
+        private void addTop(long index, double probability) {
+
+            State head;
+
+            if (!top) {
+                return;
+            }
+
+            if (states.size() < topSize) {
+                states.add(new State(index, probability));
+            } else {
+                head = states.peek();
+                if (probability > head.probability
+                        || (probability == head.probability
+                        && index < head.index)) {
+                    states.poll();
+                    states.add(new State(index, probability));
+                }
+            }
+        }
+
+        /**
+         * Add an element of the vector. Return its probability.
+         */
+        public double add(long index, double re, double im) {
+
+            double probability = ComplexMath.absSquare(re, im);
+
+            sum.add(probability);
+
+            // p log p is 0 when p is 0.
+            if (probability > 0.0d) {
+                sumLog.add(probability * Math.log(probability));
+            }
+
+            addTop(index, probability);
+
+            if (max && (maxIndex == -1 || probability > maxAbs * maxAbs)) {
+                maxAbs = Math.sqrt(probability);
+                maxIndex = index;
+                maxValue = Double.toString(re) + "j" + Double.toString(im);
+            }
+
+            return probability;
+        }
+
+        /**
+         * Write the partial results of a map task: key = statistic.
+         */
+        public void writePartial(TaskInputOutputContext<?, ?, Text, Text>
+                context) throws IOException, InterruptedException {
+
+            if (norm || entropy) {
+                context.write(new Text("sum"), new Text(Double.toString(
+                        sum.get()) + "," + Double.toString(sumLog.get())));
+            }
+
+            if (max && maxIndex > -1) {
+                context.write(new Text("max"), new Text(Long.toString(
+                        maxIndex) + "," + Double.toString(maxAbs) + ","
+                        + maxValue));
+            }
+
+            for (State state : states) {
+                context.write(new Text("top"), new Text(Long.toString(
+                        state.index) + "," + Double.toString(
+                        state.probability)));
+            }
+        }
+
+        /**
+         * Add the partial results of a map task.
+         */
+        public void addPartial(String key, String value) {
+
+            String[] records = value.split(",");
+            double abs;
+
+            if (key.equals("sum")) {
+                sum.add(Double.parseDouble(records[0]));
+                sumLog.add(Double.parseDouble(records[1]));
+            } else {
+                if (key.equals("max")) {
+                    abs = Double.parseDouble(records[1]);
+                    if (abs > maxAbs) {
+                        maxIndex = Long.parseLong(records[0]);
+                        maxAbs = abs;
+                        maxValue = records[2];
+                    }
+                } else {
+                    if (key.equals("top")) {
+                        addTop(Long.parseLong(records[0]), Double.parseDouble(
+                                records[1]));
+                    }
+                }
+            }
+        }
+
+        /**
+         * Write the results: one line per statistic and one line per top
+         * state, from the most likely.
+         */
+        public void writeResult(TaskInputOutputContext<?, ?, Text, Text>
+                context) throws IOException, InterruptedException {
+
+            double total = sum.get();
+            State[] sorted = states.toArray(new State[states.size()]);
+
+            if (norm) {
+                context.write(new Text("norm"), new Text(Double.toString(
+                        Math.sqrt(total))));
+            }
+
+            /*
+             * H = -sum (p/N) log2 (p/N) = log2 N - sum (p log p) / (N ln 2),
+             * with N the sum of the probabilities.
+             */
+            if (entropy && total > 0.0d) {
+                context.write(new Text("entropy"), new Text(Double.toString(
+                        (Math.log(total) - sumLog.get() / total)
+                        / Math.log(2.0d))));
+            }
+
+            if (max && maxIndex > -1) {
+                context.write(new Text("max"), new Text(Long.toString(
+                        maxIndex) + "," + maxValue));
+            }
+
+            Arrays.sort(sorted);
+            for (int i = sorted.length - 1; i >= 0; i--) {
+                context.write(new Text("top"), new Text(Integer.toString(
+                        sorted.length - i) + "," + Long.toString(
+                        sorted[i].index) + "," + Double.toString(
+                        sorted[i].probability)));
+            }
+        }
+    }
+
+
+    public static class Map extends Mapper<LongWritable, Text, Text, Text> {
+
+        private Statistics statistics;
+        private MultipleOutputs<Text, Text> outputs = null;
+        private ComplexWritable element = new ComplexWritable();
+
+        protected void setup(Context context) throws IOException,
+                InterruptedException {
+
+            statistics = new Statistics(context.getConfiguration());
+
+            if (context.getConfiguration().getBoolean(PROBABILITIES, false)) {
+                outputs = new MultipleOutputs<Text, Text>(context);
+            }
+        }
+
+        public void map(LongWritable key, Text value, Context context)
+                throws IOException, InterruptedException {
+
+            // "," is the delimiter used in the input file.
+            String[] records = value.toString().split(",");
+            double probability;
+
+            // # is the header of the matrix file.
+            if (records[0].indexOf("#") > -1) {
+                if (outputs != null) {
+                    outputs.write(PROBABILITIES, NullWritable.get(), value,
+                            PROBABILITIES + "/part");
+                }
+                return;
+            }
+
+            if (records.length != 4) {
+                return;
+            }
+
+            element.set(records[3]);
+            probability = statistics.add(Long.parseLong(records[1]),
+                    element.getReal(), element.getImaginary());
+
+            // The same line of AbsSquare.
+            if (outputs != null) {
+                outputs.write(PROBABILITIES, NullWritable.get(), new Text(
+                        records[0] + "," + records[1] + "," + records[2] + ","
+                        + Double.toString(probability)), PROBABILITIES
+                        + "/part");
+            }
+        }
+
+        protected void cleanup(Context context) throws IOException,
+                InterruptedException {
+
+            statistics.writePartial(context);
+
+            if (outputs != null) {
+                outputs.close();
+            }
+        }
+    }
+
+
+    public static class BinaryMap extends MatrixFormat.BinaryMapper<Text,
+            Text> {
+
+        private Statistics statistics;
+        private MultipleOutputs<Text, Text> outputs = null;
+
+        protected void setup(Context context) throws IOException,
+                InterruptedException {
+
+            super.setup(context);
+            statistics = new Statistics(context.getConfiguration());
+
+            if (context.getConfiguration().getBoolean(PROBABILITIES, false)) {
+                outputs = new MultipleOutputs<Text, Text>(context);
+
+                if (header) {
+                    outputs.write(PROBABILITIES, NullWritable.get(), new Text(
+                            "#" + type + "," + rows + "," + columns),
+                            PROBABILITIES + "/part");
+                }
+            }
+        }
+
+        public void map(LongPair key, ComplexWritable value, Context context)
+                throws IOException, InterruptedException {
+
+            double probability = statistics.add(key.getRow(), value.getReal(),
+                    value.getImaginary());
+
+            if (outputs != null) {
+                outputs.write(PROBABILITIES, NullWritable.get(), new Text(type
+                        + "," + Long.toString(key.getRow()) + ","
+                        + Long.toString(key.getColumn()) + ","
+                        + Double.toString(probability)), PROBABILITIES
+                        + "/part");
+            }
+        }
+
+        protected void cleanup(Context context) throws IOException,
+                InterruptedException {
+
+            statistics.writePartial(context);
+
+            if (outputs != null) {
+                outputs.close();
+            }
+        }
+    }
+
+
+    /**
+     * The only reduce task adds the partial results of all map tasks and
+     * writes the statistics when all keys were read.
+     */
+    public static class Reduce extends Reducer<Text, Text, Text, Text> {
+
+        private Statistics statistics;
+
+        protected void setup(Context context) throws IOException,
+                InterruptedException {
+            statistics = new Statistics(context.getConfiguration());
+        }
+
+        public void reduce(Text key, Iterable<Text> values, Context context)
+                throws IOException, InterruptedException {
+
+            String statistic = key.toString();
+
+            for (Text val : values) {
+                statistics.addPartial(statistic, val.toString());
+            }
+        }
+
+        protected void cleanup(Context context) throws IOException,
+                InterruptedException {
+            statistics.writeResult(context);
+        }
+    }
+
+
+    public static void main(String[] args) throws Exception {
+
+        Configuration conf = new Configuration();
+        Path inputPath;
+        Path outputPath;
+        FileSystem  fs;
+        Job job;
+
+        try {
+
+            args = new GenericOptionsParser(conf, args).getRemainingArgs();
+            inputPath = new Path(args[0]);
+            outputPath = new Path(args[1]);
+
+            /*
+             * Disable the map output compression in Hadoop for gain of
+             * performance
+             */
+            conf.set("mapred.compress.map.output", "false");
+
+            // Set the key/value separator
+            conf.set("mapred.textoutputformat.separator", ",");
+
+            // The probabilities are written by the map tasks.
+            conf.setBoolean(PROBABILITIES, ("," + conf.get("statistics",
+                    DEFAULT_STATISTICS) + ",").indexOf("," + PROBABILITIES
+                    + ",") > -1);
+
+            fs = FileSystem.get(new URI(outputPath.toString()), conf);
+
+            // Delete the output directory if it already exists.
+            fs.delete(outputPath, true);
+            fs.close();
+
+            // Create job
+            job = new Job(conf, "StateStatistics");
+            job.setJarByClass(StateStatistics.class);
+
+            // Specify key / value
+            job.setOutputKeyClass(Text.class);
+            job.setOutputValueClass(Text.class);
+
+            // Setup MapReduce job
+            job.setReducerClass(Reduce.class);
+
+            // All partial results go to one reduce task.
+            job.setNumReduceTasks(1);
+
+            // Set Map output Key/Value type
+            job.setMapOutputKeyClass(Text.class);
+            job.setMapOutputValueClass(Text.class);
+
+            if (MatrixFormat.isBinary(conf, inputPath)) {
+                job.setMapperClass(BinaryMap.class);
+                MatrixFormat.setBinaryInput(job);
+            } else {
+                job.setMapperClass(Map.class);
+                job.setInputFormatClass(TextInputFormat.class);
+            }
+            job.setOutputFormatClass(TextOutputFormat.class);
+
+            MultipleOutputs.addNamedOutput(job, PROBABILITIES,
+                    TextOutputFormat.class, NullWritable.class, Text.class);
+
+            // Input
+            FileInputFormat.addInputPath(job, inputPath);
+
+            // Output
+            FileOutputFormat.setOutputPath(job, outputPath);
+
+            // Execute job
+            if (!job.waitForCompletion(true)) {
+                throw new IOException("The job StateStatistics failed.");
+            }
+
+
+        } catch (Exception e) {
+            System.out.println(e);
+            System.exit(1);
+        }
+
+    }
+}
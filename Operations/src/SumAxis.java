@@ -17,16 +17,15 @@ package operations;
 
 import java.io.IOException;
 import java.net.URI;
-import java.util.Arrays;
 
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.FileSystem;
-import org.apache.hadoop.fs.FileStatus;
-import org.apache.hadoop.fs.FileUtil;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.Job;
@@ -57,331 +56,245 @@ public class SumAxis {
      */
     private static final int NOT_INDEX = 2;
 
-    public static class Map extends Mapper<LongWritable, Text, Text, Text> {
+    public static class Map extends Mapper<LongWritable, Text, IndexArray,
+            DoubleWritable> {
+
+        private boolean[] summed;
+        private String[] fixedAxis = null;
+        private IndexArray outputKey = new IndexArray();
+        private DoubleWritable outputValue = new DoubleWritable();
+
+        protected void setup(Context context) throws IOException,
+                InterruptedException {
+
+            Configuration conf = context.getConfiguration();
+            String[] axis = conf.get("axis").split(",");
+            int maxAxis = 0;
+
+            for (String a : axis) {
+                maxAxis = Math.max(maxAxis, Integer.parseInt(a));
+            }
+
+            // All summed axes are dropped from the key at once.
+            summed = new boolean[maxAxis + 1];
+            for (String a : axis) {
+                summed[Integer.parseInt(a)] = true;
+            }
+
+            if (!conf.get("fixedAxis").equals("empty")) {
+                fixedAxis = conf.get("fixedAxis").split(",");
+            }
+        }
+
         public void map(LongWritable key, Text value, Context context)
                 throws IOException, InterruptedException,
                 IllegalArgumentException {
 
-            Configuration conf = context.getConfiguration();
             String line = value.toString();
             String[] records = line.split(",");
-            int axis = Integer.parseInt(conf.get("axis"));
-            String fullFixedAxis = conf.get("fixedAxis");
-            String[] fixedAxis;
-            String outputKey = records[0];
-            String outputValue = "";
-            boolean writeOutput = true;
-
             // # is the header of the matrix file.
-            if (records[0].indexOf("#") == -1) {
-
-                if (axis == records.length - 1) {
-                    throw new IllegalArgumentException("The axis should be "
-                            + "small than " + Integer.toString(
-                            records.length - 1) + ".");
-                }
+            boolean header = records[0].indexOf("#") > -1;
+            int numberIndexes = header ? records.length - 1
+                    : records.length - NOT_INDEX;
+
+            if (summed.length - 1 > numberIndexes) {
+                throw new IllegalArgumentException("The axis should be "
+                        + "small than " + Integer.toString(numberIndexes + 1)
+                        + ".");
+            }
 
-                if (fullFixedAxis.equals("empty")) {
+            if (fixedAxis != null && fixedAxis.length != numberIndexes) {
+                throw new IllegalArgumentException("You should give "
+                        + Integer.toString(numberIndexes)
+                        + "values to be fixed. Use the character ? in "
+                        + "a not fixed value.");
+            }
 
-                    for (int i = 1; i < records.length - 1; i++) {
+            // The type is the last character of A, B, #A or #B.
+            outputKey.clear(records[0].charAt(records[0].length() - 1),
+                    header);
 
-                        if (i != axis) {
+            for (int i = 1; i <= numberIndexes; i++) {
 
-                            outputKey += "," + records[i];
-                        }
-                    }
-
-                    outputValue += records[records.length - 1];
-
-                    context.write(new Text(outputKey) , new Text(outputValue));
-
-                } else {
-                    fixedAxis = fullFixedAxis.split(",");
-                    if (fixedAxis.length == records.length - NOT_INDEX) {
-
-                        for (int i = 0; i < fixedAxis.length; i++) {
-                            if (fixedAxis[i].equals("?")) {
-                                if (i + 1 != axis) {
-                                    outputKey += "," + records[i+1];
-                                }
-
-                            } else {
-                                if (fixedAxis[i].equals(records[i+1])) {
-                                        continue;
-
-                                } else {
-                                    writeOutput = false;
-                                    break;
-                                }
-                            }
-                        }
-                        outputValue += records[records.length - 1];
-                        if (writeOutput) {
-                            context.write(new Text(outputKey) , new Text(
-                                    outputValue));
-                        }
-                    } else {
-                        throw new IllegalArgumentException("You should give "
-                                + Integer.toString(records.length - NOT_INDEX)
-                                + "values to be fixed. Use the character ? in "
-                                + "a not fixed value.");
+                // A fixed axis filters the elements and is not in the key.
+                if (fixedAxis != null && !fixedAxis[i - 1].equals("?")) {
+                    if (!header && !fixedAxis[i - 1].equals(records[i])) {
+                        return;
                     }
+                    continue;
                 }
 
-            } else {
-
-                if (axis == records.length) {
-                    throw new IllegalArgumentException("The axis should be "
-                            + "small than " + Integer.toString(records.length)
-                            + ".");
+                if (i < summed.length && summed[i]) {
+                    continue;
                 }
 
-                if (fullFixedAxis.equals("empty")) {
-
-                    for (int i = 1; i < records.length; i++) {
-
-                        if (i != axis) {
-
-                            outputValue += records[i];
-                            if (i + 1 != records.length) {
-                                outputValue += ",";
-                            }
-                        }
-                    }
-
-                    context.write(new Text(outputKey) , new Text(outputValue));
-
-                } else {
-                    fixedAxis = fullFixedAxis.split(",");
-                    if (fixedAxis.length == records.length - 1) {
-
-                        for (int i = 0; i < fixedAxis.length; i++) {
-                            if (fixedAxis[i].equals("?")) {
-                                if (i + 1 != axis) {
-                                    if (!outputValue.equals("")) {
-                                        outputValue += ",";
-                                    }
-                                    outputValue += records[i+1];
-                                }
-
-                            }
-                        }
-
-                        context.write(new Text(outputKey) , new Text(
-                                outputValue));
-
-                    } else {
-                        throw new IllegalArgumentException("You should give "
-                                + Integer.toString(records.length - NOT_INDEX)
-                                + "values to be fixed. Use the character ? in "
-                                + "a not fixed value.");
-                    }
-                }
+                // The header has the dimensions of the axes.
+                outputKey.add(Integer.parseInt(records[i]));
             }
+
+            outputValue.set(header ? 0.0d : Double.parseDouble(
+                    records[records.length - 1]));
+            context.write(outputKey, outputValue);
         }
 
     }
 
 
-    public static class Combine extends Reducer<Text, Text, Text, Text> {
-
-        public void reduce(Text key, Iterable<Text> values, Context context)
-                throws IOException, InterruptedException {
-
-            double sum = 0.0d;
+    /**
+     * Add the values of a key. The header has only its key.
+     */
+    public static class Combine extends Reducer<IndexArray, DoubleWritable,
+            IndexArray, DoubleWritable> {
 
-            if (key.toString().indexOf("#") == -1) {
+        private DoubleWritable sum = new DoubleWritable();
 
-                for (Text val : values) {
-                    sum += Double.parseDouble(val.toString());
-                }
+        public void reduce(IndexArray key, Iterable<DoubleWritable> values,
+                Context context) throws IOException, InterruptedException {
 
-                context.write(key, new Text(Double.toString(sum)));
+            double total = 0.0d;
 
-            } else {
-                for (Text val : values) {
-                    context.write(key, val);
+            if (!key.isHeader()) {
+                for (DoubleWritable val : values) {
+                    total += val.get();
                 }
             }
 
+            sum.set(total);
+            context.write(key, sum);
         }
     }
 
 
-    public static class Reduce extends Reducer<Text, Text, Text, Text> {
-
-        public void reduce(Text key, Iterable<Text> values, Context context)
-                throws IOException, InterruptedException {
+    /**
+     * Write the sum of a key as the text line type,index,...,sum and the
+     * header as #type,dimension,...
+     */
+    public static class Reduce extends Reducer<IndexArray, DoubleWritable,
+            IndexArray, Writable> {
 
-            double sum = 0.0d;
+        private DoubleWritable sum = new DoubleWritable();
 
-            if (key.toString().indexOf("#") == -1) {
+        public void reduce(IndexArray key, Iterable<DoubleWritable> values,
+                Context context) throws IOException, InterruptedException {
 
-                for (Text val : values) {
-                    sum += Double.parseDouble(val.toString());
-                }
+            double total = 0.0d;
 
-                context.write(key, new Text(Double.toString(sum)));
+            if (key.isHeader()) {
+                context.write(key, NullWritable.get());
+                return;
+            }
 
-            } else {
-                for (Text val : values) {
-                    context.write(key, val);
-                }
+            for (DoubleWritable val : values) {
+                total += val.get();
             }
 
+            sum.set(total);
+            context.write(key, sum);
         }
     }
 
 
-    public static void main(String[] args) throws Exception {
+    /**
+     * Run the operation with the given configuration. A driver calls it to
+     * submit the jobs in its own JVM; the file systems are not closed.
+     */
+    public static void run(Configuration conf, String[] args)
+            throws Exception {
 
-        Configuration conf = new Configuration();
         Path inputPath;
         Path outputPath;
         int idxInputPath = 1;
         int idxOutputPath = 2;
-        Path ptLoopDir;
         FileSystem  fs;
         Job job;
-        String[] axis;
         String fixedAxis = "empty";
-        int[] sortAxis;
-        int count;
-        String loopDir;
-        FileUtil fu = new FileUtil();;
-        FileStatus[] status;
-
-        try {
-
-            if (args[0].indexOf("0") > -1) {
-                System.out.println("The first axis is 1.");
-                System.exit(1);
-            }
 
-            axis = args[0].split(",");
+        if (args[0].indexOf("0") > -1) {
+            throw new IllegalArgumentException("The first axis is 1.");
+        }
 
-            if (args.length == ARGS_LENGTH) {
-                fixedAxis = args[1];
-                idxInputPath = 2;
-                idxOutputPath = 3;
+        if (args.length == ARGS_LENGTH) {
+            fixedAxis = args[1];
+            idxInputPath = 2;
+            idxOutputPath = 3;
+        } else {
+            if (args.length == ARGS_LENGTH - 1) {
+                idxInputPath = 1;
+                idxOutputPath = 2;
             } else {
-                if (args.length == ARGS_LENGTH - 1) {
-                    idxInputPath = 1;
-                    idxOutputPath = 2;
-                } else {
-                    System.out.println("The program supports only 3 or 4 "
-                            + "arguments. The given input has " + args.length
-                            + " arguments.");
-                    System.exit(1);
-                }                
-            }
-
-            inputPath = new Path(args[idxInputPath]);
-            outputPath = new Path(args[idxOutputPath]);
-            loopDir = args[idxInputPath] + "LoopDir";
-
-            // Put the input axes in descending order
-            sortAxis = new int[axis.length];
-            for (int i = 0; i < axis.length; i++) {
-                sortAxis[i] = Integer.parseInt(axis[i]);
-            }
-            Arrays.sort(sortAxis);
-            count = 0;
-            for (int i = (sortAxis.length - 1); i >= 0; i--) {
-                axis[count] = Integer.toString(sortAxis[i]);
-                count++;
-            }
-
-            fs = FileSystem.get(new URI(outputPath.toString()), conf);
-
-            /*
-             * Disable the map output compression in Hadoop for gain of
-             * performance
-             */
-            conf.set("mapred.compress.map.output", "false");
-
-            // Set the key/value separator
-            conf.set("mapred.textoutputformat.separator", ",");
-
-            // Set the axes with fixed value
-            conf.set("fixedAxis", fixedAxis);
-
-            ptLoopDir = new Path(loopDir);
-            fs.delete(ptLoopDir, true);
-            fs.mkdirs(ptLoopDir);
+                throw new IllegalArgumentException("The program supports "
+                        + "only 3 or 4 arguments. The given input has "
+                        + args.length + " arguments.");
+            }                
+        }
 
-            status = fs.listStatus(inputPath);
-            for (FileStatus stat : status) {
+        inputPath = new Path(args[idxInputPath]);
+        outputPath = new Path(args[idxOutputPath]);
 
-                fu.copy(fs, stat.getPath(), fs, ptLoopDir, false, true, conf);
-            }
+        fs = FileSystem.get(new URI(outputPath.toString()), conf);
 
-            for (int i = 0; i < axis.length; i++) {
+        /*
+         * Disable the map output compression in Hadoop for gain of
+         * performance
+         */
+        conf.set("mapred.compress.map.output", "false");
 
-                if (i > 0) {
+        // Set the key/value separator
+        conf.set("mapred.textoutputformat.separator", ",");
 
-                    fs.delete(ptLoopDir, true);
-                    fs.mkdirs(ptLoopDir);
-                    status = fs.listStatus(outputPath);
-                    for (FileStatus stat : status) {
-                        if (stat.getPath().toString().indexOf("part-r-") > -1) {
+        // Set the axes with fixed value
+        conf.set("fixedAxis", fixedAxis);
 
-                            fs.rename(stat.getPath(), ptLoopDir);
-                        }
-                    }
-                    // Use fixedAxis only once.
-                    conf.set("fixedAxis", "empty");
-                }
+        // The chosen axes, summed in only one job
+        conf.set("axis", args[0]);
 
-                // Delete the output directory if it already exists.
-                fs.delete(outputPath, true);
-                
-                // The chosen axis
-                conf.set("axis", axis[i]);
+        // Delete the output directory if it already exists.
+        fs.delete(outputPath, true);
 
-                // Create job
-                job = new Job(conf, "SumAxis" + axis[i]);
-                job.setJarByClass(SumAxis.class);
+        // Create job
+        job = new Job(conf, "SumAxis" + args[0]);
+        job.setJarByClass(SumAxis.class);
 
-                // Specify key / value
-                job.setOutputKeyClass(Text.class);
-                job.setOutputValueClass(Text.class);
+        // Specify key / value
+        job.setOutputKeyClass(IndexArray.class);
+        job.setOutputValueClass(Writable.class);
 
-                // Setup MapReduce job
-                job.setMapperClass(Map.class);
-                job.setCombinerClass(Combine.class);
-                job.setReducerClass(Reduce.class);
+        // Setup MapReduce job
+        job.setMapperClass(Map.class);
+        job.setCombinerClass(Combine.class);
+        job.setReducerClass(Reduce.class);
 
-                // In the last execution set the number of reduces tasks to one
-                if (i == axis.length - 1) {
-                    job.setNumReduceTasks(1);
-                }
+        // Set only the number of reduces tasks
+        job.setNumReduceTasks(1);
 
-                // Set Map output Key/Value type
-                job.setMapOutputKeyClass(Text.class);
-                job.setMapOutputValueClass(Text.class);
+        // Set Map output Key/Value type
+        job.setMapOutputKeyClass(IndexArray.class);
+        job.setMapOutputValueClass(DoubleWritable.class);
 
-                job.setInputFormatClass(TextInputFormat.class);
-                job.setOutputFormatClass(TextOutputFormat.class);
+        job.setInputFormatClass(TextInputFormat.class);
+        job.setOutputFormatClass(TextOutputFormat.class);
 
-                // Input
-                FileInputFormat.addInputPath(job, ptLoopDir);
+        // Input
+        FileInputFormat.addInputPath(job, inputPath);
 
-                // Output
-                FileOutputFormat.setOutputPath(job, outputPath);
+        // Output
+        FileOutputFormat.setOutputPath(job, outputPath);
 
-                // Execute job
-                job.waitForCompletion(true);
+        // Execute job
+        if (!job.waitForCompletion(true)) {
+            throw new IOException("The job SumAxis failed.");
+        }
+    }
 
-            }
 
-            fs.delete(ptLoopDir, true);
-            fs.close();
+    public static void main(String[] args) throws Exception {
 
+        try {
+            run(new Configuration(), args);
         } catch (Exception e) {
             System.out.println(e);
+            System.exit(1);
         }
 
     }
 }
-
@@ -98,8 +98,6 @@ public class QW {
         String w2BGWalkers;
         String line;
         String walkersStateNorm;
-        String absSquare;
-        String reshape;
         String pdf;
         BufferedWriter bw;
         BufferedReader br;
@@ -395,9 +393,11 @@ public class QW {
 
             }
 
+            // The operator is used only by MultMatrix, so only the factors
+            // are written.
             pr = rt.exec("hadoop jar " + JAR_DIR + "operations.jar operations."
-                    + "KronMatrix " + WORK_DIR + operatorW2A + "_input" + " "
-                    + WORK_DIR + operatorW2A + " A");
+                    + "KronMatrix -D lazyOperator=true " + WORK_DIR + operatorW2A
+                    + "_input" + " " + WORK_DIR + operatorW2A + " A");
 
             pr.waitFor();
             pr.destroy();
@@ -451,9 +451,11 @@ public class QW {
 
             }
 
+            // The operator is used only by MultMatrix, so only the factors
+            // are written.
             pr = rt.exec("hadoop jar " + JAR_DIR + "operations.jar operations."
-                    + "KronMatrix " + WORK_DIR + operatorW2B + "_input" + " "
-                    + WORK_DIR + operatorW2B + " A");
+                    + "KronMatrix -D lazyOperator=true " + WORK_DIR + operatorW2B
+                    + "_input" + " " + WORK_DIR + operatorW2B + " A");
 
             pr.waitFor();
             pr.destroy();
@@ -784,49 +786,10 @@ public class QW {
 
             // End of the walkersStateNorm
 
-            // Start of the absSquare
-            absSquare = "absSquare";
-
-            // Delete the output directory if exists.
-            pt = new Path(WORK_DIR + absSquare);
-            fs.delete(pt, true);
-
             /*
-             * Computes the square of the absolute value for each element of the
-             * array.
-             */
-            pr = rt.exec("hadoop jar " + JAR_DIR + "operations.jar operations."
-                    + "AbsSquare " + WORK_DIR + walkersStateT + " " + WORK_DIR
-                    + absSquare);
-
-            pr.waitFor();
-            pr.destroy();
-
-            // End of the absSquare
-
-            // Start of the reshape
-            reshape = "reshape";
-
-            // Delete the output directory if exists.
-            pt = new Path(WORK_DIR + reshape);
-            fs.delete(pt, true);
-
-            // Gives a new shape for the array.
-            pr = rt.exec("hadoop jar " + JAR_DIR + "operations.jar operations."
-                    + "Reshape 2,2," + Integer.toString(SIZE) + ","
-                    + Integer.toString(SIZE) + ",2,2," + Integer.toString(SIZE)
-                    + "," + Integer.toString(SIZE) + " " + WORK_DIR + absSquare
-                    + " " + WORK_DIR + reshape);
-
-            pr.waitFor();
-            pr.destroy();
-
-            // End of the reshape
-
-            /*
-             * Start of the sumAxis. In this case the output of SunAxis function
-             * will be the PDF of walkersStateT when the particle 2 is in the
-             * position (SIZE/2, SIZE/2)
+             * Start of the marginal. In this case the output of Marginal
+             * function will be the PDF of walkersStateT when the particle 2 is
+             * in the position (SIZE/2, SIZE/2)
              */
             pdf = "pdf";
 
@@ -835,19 +798,22 @@ public class QW {
             fs.delete(pt, true);
 
             /*
-             * Sum the elements of the array over given axes, for a specific
-             * position.
-             */ 
+             * Computes the square of the absolute value for each element of the
+             * array, gives it a new shape and sum the elements over given axes,
+             * for a specific position, in only one job.
+             */
             pr = rt.exec("hadoop jar " + JAR_DIR + "operations.jar operations."
-                    + "SumAxis 1,2,5,6 ?,?,?,?,?,?,"
+                    + "Marginal 2,2," + Integer.toString(SIZE) + ","
+                    + Integer.toString(SIZE) + ",2,2," + Integer.toString(SIZE)
+                    + "," + Integer.toString(SIZE) + " 1,2,5,6 ?,?,?,?,?,?,"
                     + Integer.toString((int)(SIZE/2)) + ","
-                    + Integer.toString((int)(SIZE/2)) + " " + WORK_DIR + reshape
-                    + " " + WORK_DIR + pdf);
+                    + Integer.toString((int)(SIZE/2)) + " " + WORK_DIR
+                    + walkersStateT + " " + WORK_DIR + pdf);
 
             pr.waitFor();
             pr.destroy();
 
-            // End of the sumAxis
+            // End of the marginal
 
             System.out.println("End of the pdf.");
 
@@ -20,6 +20,7 @@ import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.FileInputStream;
 import java.util.Properties;
 import java.io.IOException;
@@ -30,6 +31,15 @@ import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileUtil;
 import org.apache.hadoop.conf.Configuration;
 
+import operations.ConvertMatrix;
+import operations.IterateMatrix;
+import operations.KronOperator;
+import operations.Marginal;
+import operations.MatrixFormat;
+import operations.MultMatrix;
+import operations.NormMatrix;
+import operations.ReducePlanner;
+
 
 /**
  * This software simulate a quantum walk or other problem that can be solved
@@ -42,6 +52,398 @@ import org.apache.hadoop.conf.Configuration;
 
 public class Quandoop {
 
+    /*
+     * Name of the manifest of the last checkpoint in workDir.
+     */
+    private static final String CHECKPOINT = "_checkpoint";
+
+
+    /**
+     * Return true if the classes of operations.jar are in the classpath.
+     */
+    private static boolean hasOperations() {
+
+        try {
+            Class.forName("operations.MultMatrix");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+
+    /**
+     * Run an operation of operations.jar that writes the folder output.
+     * With inProcess the jobs are submitted in this JVM with a copy
+     * of conf and the same FileSystem, so each multiplication does not start
+     * a new JVM and a new Hadoop client. Otherwise "hadoop jar" runs the
+     * operation in a new process. Return false if the operation failed.
+     */
+    private static boolean runOperation(Configuration conf, FileSystem fs,
+            boolean inProcess, String jarDir, String operation, String output,
+            String[] args) throws Exception {
+
+        String command = "hadoop jar " + jarDir + "operations.jar operations."
+                + operation;
+        BufferedReader br;
+        String line;
+        Process pr;
+
+        if (inProcess) {
+
+            if (operation.equals("MultMatrix")) {
+                MultMatrix.run(new Configuration(conf), args);
+            } else {
+                if (operation.equals("NormMatrix")) {
+                    NormMatrix.run(new Configuration(conf), args);
+                } else {
+                    Marginal.run(new Configuration(conf), args);
+                }
+            }
+
+        } else {
+
+            for (String arg : args) {
+                command += " " + arg;
+            }
+
+            pr = Runtime.getRuntime().exec(command);
+
+            pr.waitFor();
+
+            br = new BufferedReader(new InputStreamReader(
+                    pr.getInputStream()));
+
+            if (pr.exitValue() != 0) {
+
+                while ((line = br.readLine()) != null) {
+                    System.out.println(line);
+                }
+
+                return false;
+            }
+
+            pr.destroy();
+        }
+
+        // A job that failed does not write the file _SUCCESS.
+        return !conf.getBoolean(
+                "mapreduce.fileoutputcommitter.marksuccessfuljobs", true)
+                || fs.exists(new Path(output, "_SUCCESS"));
+    }
+
+
+    /**
+     * Estimate the product of the operators of the folders left and right
+     * from a sample of each one. Return {products, nnz(left) + nnz(right),
+     * rows(left) * columns(right)}. The number of products is also a bound
+     * of the elements of the product.
+     */
+    private static double[] estimateProduct(Configuration conf, String left,
+            String right) throws IOException {
+
+        ReducePlanner.Sample sampleLeft = ReducePlanner.sample(conf,
+                new Path(left));
+        ReducePlanner.Sample sampleRight = ReducePlanner.sample(conf,
+                new Path(right));
+        String[] dimLeft = MatrixFormat.findHeader(conf, new Path(left));
+        String[] dimRight = MatrixFormat.findHeader(conf, new Path(right));
+        double size = Double.parseDouble(dimLeft[1])
+                * Double.parseDouble(dimRight[2]);
+
+        return new double[] {Math.min(MultMatrix.estimateProducts(
+                sampleLeft, sampleRight), size), sampleLeft.elements()
+                + sampleRight.elements(), size};
+    }
+
+
+    /**
+     * Write in output the product of the operators of the folders left and
+     * right, with the type A. The two folders are kept, so left and right
+     * can be the same folder.
+     */
+    private static void multiplyOperators(Configuration conf, FileSystem fs,
+            boolean inProcess, String jarDir, String workDir, String left,
+            String right, String output) throws Exception {
+
+        String input = workDir + "productInput";
+        FileUtil fu = new FileUtil();
+
+        fs.delete(new Path(input), true);
+        fs.mkdirs(new Path(input));
+
+        for (FileStatus stat : fs.listStatus(new Path(left))) {
+            if (MatrixFormat.isDataFile(stat.getPath())) {
+                fu.copy(fs, stat.getPath(), fs, new Path(input, stat.getPath()
+                        .getName() + "-A"), false, conf);
+            }
+        }
+
+        // The right operator is the matrix B of the product.
+        ConvertMatrix.changeType(conf, new Path(right), new Path(input, "B"),
+                "B");
+        for (FileStatus stat : fs.listStatus(new Path(input, "B"))) {
+            fs.rename(stat.getPath(), new Path(input, stat.getPath()
+                    .getName() + "-B"));
+        }
+        fs.delete(new Path(input, "B"), true);
+
+        fs.delete(new Path(output), true);
+
+        if (!runOperation(conf, fs, inProcess, jarDir, "MultMatrix", output,
+                new String[] {input, output, "A"})) {
+            throw new IOException("The product of " + left + " and " + right
+                    + " failed.");
+        }
+
+        fs.delete(new Path(input), true);
+    }
+
+
+    /**
+     * Replace the operators u0, ..., u(numberU - 1) of workDir by their
+     * products, multiplied once before the steps. From left to right, the
+     * product P of the operators of a group is multiplied by the next
+     * operator U only if the number of products of P * U, estimated by a
+     * sample, is at most maxFillIn times nnz(P) + nnz(U), the elements
+     * read by the two multiplications of a step, and if the products cost
+     * less than these elements in all the steps. Otherwise P is kept and U
+     * starts a new group. Return the number of operators.
+     */
+    private static int composeOperators(Configuration conf, FileSystem fs,
+            boolean inProcess, String jarDir, String workDir, int numberU,
+            int steps, double maxFillIn) throws Exception {
+
+        String current = workDir + "u0";
+        String next;
+        String output;
+        double[] estimate;
+        int count = 0;
+
+        for (int k = 1; k < numberU; k++) {
+
+            next = workDir + "u" + Integer.toString(k);
+
+            if (KronOperator.isOperator(conf, new Path(current))
+                    || KronOperator.isOperator(conf, new Path(next))) {
+                estimate = new double[] {Double.MAX_VALUE, 0.0d, 0.0d};
+            } else {
+                estimate = estimateProduct(conf, current, next);
+
+                System.out.println("The product with the operator " + k
+                        + " has about " + (long) estimate[0] + " elements "
+                        + "and the two operators have " + (long) estimate[1]
+                        + ".");
+            }
+
+            if (estimate[0] <= maxFillIn * estimate[1]
+                    && estimate[0] <= steps * estimate[1]) {
+
+                output = workDir + "composite" + Integer.toString(k);
+                multiplyOperators(conf, fs, inProcess, jarDir, workDir,
+                        current, next, output);
+
+                fs.delete(new Path(current), true);
+                fs.delete(new Path(next), true);
+                current = output;
+
+            } else {
+                keepOperator(fs, current, workDir + "u" + Integer.toString(
+                        count++));
+                current = next;
+            }
+        }
+
+        keepOperator(fs, current, workDir + "u" + Integer.toString(count++));
+
+        return count;
+    }
+
+
+    /**
+     * Replace the operator u0 of workDir by U^steps, calculated by repeated
+     * squaring with about 2 log2(steps) products. Before each product the
+     * elements of the result are estimated by a sample. If the result would
+     * have more than maxDensity of the elements of a dense matrix, or if
+     * the products of all the multiplications would be more than the
+     * steps * nnz(U) products of the steps, u0 is not changed and false is
+     * returned.
+     */
+    private static boolean powerOperator(Configuration conf, FileSystem fs,
+            boolean inProcess, String jarDir, String workDir, int steps,
+            double maxDensity) throws Exception {
+
+        String operator = workDir + "u0";
+        String base = operator;
+        String power = null;
+        String output;
+        double[] estimate;
+        double limit;
+        double cost = 0.0d;
+        int exponent = steps;
+        int count = 0;
+        boolean square = false;
+
+        if (KronOperator.isOperator(conf, new Path(operator))) {
+            return false;
+        }
+
+        limit = steps * ReducePlanner.sample(conf, new Path(operator))
+                .elements();
+
+        while (exponent > 0) {
+
+            // The base is squared only if a higher bit is needed.
+            if (square) {
+                estimate = estimateProduct(conf, base, base);
+            } else {
+                if ((exponent & 1) == 0) {
+                    exponent >>= 1;
+                    square = true;
+                    continue;
+                }
+
+                if (power == null) {
+                    power = base;
+                    exponent >>= 1;
+                    square = true;
+                    continue;
+                }
+
+                estimate = estimateProduct(conf, power, base);
+            }
+
+            cost += estimate[0];
+
+            if (estimate[0] > maxDensity * estimate[2] || cost > limit) {
+                System.out.println("The power of the operator is too dense. "
+                        + "The steps are multiplied one by one.");
+                dropOperator(fs, operator, base, null);
+                dropOperator(fs, operator, power, null);
+                return false;
+            }
+
+            output = workDir + "power" + Integer.toString(count++);
+
+            if (square) {
+                multiplyOperators(conf, fs, inProcess, jarDir, workDir, base,
+                        base, output);
+                dropOperator(fs, operator, base, power);
+                base = output;
+                square = false;
+            } else {
+                multiplyOperators(conf, fs, inProcess, jarDir, workDir, power,
+                        base, output);
+                dropOperator(fs, operator, power, base);
+                power = output;
+                exponent >>= 1;
+                square = exponent > 0;
+            }
+        }
+
+        dropOperator(fs, operator, base, power);
+
+        if (!power.equals(operator)) {
+            keepOperator(fs, power, operator);
+        }
+
+        System.out.println("The operator was raised to the power " + steps
+                + " with " + count + " products.");
+
+        return true;
+    }
+
+
+    /**
+     * Delete the folder of an operator that is not the original operator
+     * and not the folder other.
+     */
+    private static void dropOperator(FileSystem fs, String operator,
+            String folder, String other) throws IOException {
+
+        if (folder != null && !folder.equals(operator)
+                && !folder.equals(other)) {
+            fs.delete(new Path(folder), true);
+        }
+    }
+
+
+    /**
+     * Move the folder of an operator to the folder target, if they are not
+     * the same.
+     */
+    private static void keepOperator(FileSystem fs, String folder,
+            String target) throws IOException {
+
+        if (!folder.equals(target)) {
+            fs.delete(new Path(target), true);
+            fs.rename(new Path(folder), new Path(target));
+        }
+    }
+
+
+    /**
+     * Write the manifest of workDir: the last step completed, the folder
+     * with the state psi after this step and the operators of the steps.
+     * The manifest is written in a temporary file and renamed, so a crash
+     * keeps the previous manifest.
+     */
+    private static void writeCheckpoint(FileSystem fs, String workDir,
+            int step, String psi, int numberU, String steps,
+            boolean[] resident) throws IOException {
+
+        Properties checkpoint = new Properties();
+        Path manifest = new Path(workDir + CHECKPOINT);
+        Path temporary = new Path(workDir + CHECKPOINT + ".tmp");
+        String operators = "";
+        OutputStream out;
+
+        for (int i = 0; i < numberU; i++) {
+            operators += (i == 0 ? "" : ",") + Boolean.toString(resident[i]);
+        }
+
+        checkpoint.setProperty("step", Integer.toString(step));
+        checkpoint.setProperty("psi", psi);
+        checkpoint.setProperty("numberU", Integer.toString(numberU));
+        checkpoint.setProperty("steps", steps);
+        checkpoint.setProperty("resident", operators);
+
+        out = fs.create(temporary, true);
+        checkpoint.store(out, "Quandoop checkpoint");
+        out.close();
+
+        fs.delete(manifest, false);
+        fs.rename(temporary, manifest);
+    }
+
+
+    /**
+     * Read the manifest of workDir. Return null if there is no manifest.
+     */
+    private static Properties readCheckpoint(FileSystem fs, String workDir)
+            throws IOException {
+
+        Properties checkpoint = new Properties();
+        Path manifest = new Path(workDir + CHECKPOINT);
+        InputStream in;
+
+        // A crash before the rename keeps only the complete temporary file.
+        if (!fs.exists(manifest)) {
+            manifest = new Path(workDir + CHECKPOINT + ".tmp");
+        }
+
+        if (!fs.exists(manifest)) {
+            return null;
+        }
+
+        in = fs.open(manifest);
+        checkpoint.load(in);
+        in.close();
+
+        return checkpoint;
+    }
+
+
     public static void main(String[] args) throws Exception {
 
         long startTime;
@@ -52,23 +454,30 @@ public class Quandoop {
         String dimensions;
         String measurement;
         String saveStates;
+        String compositeFillIn;
+        String squaringDensity;
         String outputDir;
         String line;
         String psi;
         String psiT;
         String psiTNorm;
-        String absSquare;
-        String reshape;
         String pdf = "";
         String partialStates = "";
+        String checkpointPsi;
         boolean pdfCalc = false;
         int numAxes;
         String fullAxes;
         BufferedReader br;
         int numberU;
         String[] uDir;
-        Runtime rt;
-        Process pr;
+        boolean inProcess;
+        boolean iterative;
+        boolean composite;
+        boolean squaring;
+        boolean resume;
+        Properties checkpoint = null;
+        int firstStep = 0;
+        boolean[] resident;
         Properties prop = new Properties();
 	    InputStream configInput = null;
 
@@ -99,6 +508,46 @@ public class Quandoop {
 		    outputDir = prop.getProperty("outputDir");
 		    saveStates = prop.getProperty("saveStates");
 
+            /*
+             * The jobs are submitted in this JVM when operations.jar is in
+             * the classpath, unless inProcess is false.
+             */
+            inProcess = !"false".equals(prop.getProperty("inProcess"))
+                    && hasOperations();
+
+            /*
+             * The iterative mode partitions the operators once and only the
+             * vector is read by the map tasks in each step.
+             */
+            iterative = inProcess && "true".equals(prop.getProperty(
+                    "iterative"));
+
+            /*
+             * The composite mode multiplies the operators before the steps
+             * when their product does not have many more elements.
+             */
+            composite = hasOperations() && "true".equals(prop.getProperty(
+                    "composite"));
+            compositeFillIn = prop.getProperty("compositeFillIn");
+            if (compositeFillIn == null || compositeFillIn.equals("")) {
+                compositeFillIn = "1.0";
+            }
+
+            /*
+             * The squaring mode calculates U^steps before the steps when
+             * only the last state is saved.
+             */
+            squaring = hasOperations() && "true".equals(prop.getProperty(
+                    "squaring")) && (saveStates == null
+                    || saveStates.equals(""));
+            squaringDensity = prop.getProperty("squaringDensity");
+            if (squaringDensity == null || squaringDensity.equals("")) {
+                squaringDensity = "0.1";
+            }
+
+            // Continue from the last checkpoint of workDir.
+            resume = "true".equals(prop.getProperty("resume"));
+
             if (steps == null || steps.equals("")) {
                 throw new IOException("The value of the configuration "
                         + "\"steps\" can not be null or empty.");
@@ -169,17 +618,25 @@ public class Quandoop {
                         fullAxes += "," + Integer.toString(i);
                     }
                 }
-                measurement = fullAxes;
+                // The axis 1 is measured, so the list starts with a comma.
+                measurement = fullAxes.startsWith(",") ? fullAxes.substring(1)
+                        : fullAxes;
+
+            }
 
+            if (resume) {
+                checkpoint = readCheckpoint(fs, workDir);
             }
 
             /*
              * Delete the workDir directory if exists. And create a new one
-             * empty.
+             * empty. With a checkpoint the prepared files are kept.
              */
-            pt = new Path(workDir);
-            fs.delete(pt, true);
-            fs.mkdirs(pt);
+            if (checkpoint == null) {
+                pt = new Path(workDir);
+                fs.delete(pt, true);
+                fs.mkdirs(pt);
+            }
 
             br = new BufferedReader(new FileReader(paths));
 
@@ -232,43 +689,103 @@ public class Quandoop {
 
             br.close();
 
-            pt = new Path(workDir + "psi");
-            fs.delete(pt, true);
-            fs.copyFromLocalFile(new Path(psi), pt);
+            psiT = workDir + "psiT";
+            partialStates = workDir + "partialStates";
+
+            if (checkpoint == null) {
 
-            for (int i = 0; i < numberU; i++) {
-                pt = new Path(workDir + "u" + Integer.toString(i));
+                pt = new Path(workDir + "psi");
                 fs.delete(pt, true);
-                fs.copyFromLocalFile(new Path(uDir[i]), pt);
-            }
+                fs.copyFromLocalFile(new Path(psi), pt);
 
-            psiT = workDir + "psiT";
-            pt = new Path(psiT);
-            fs.mkdirs(pt);
+                for (int i = 0; i < numberU; i++) {
+                    pt = new Path(workDir + "u" + Integer.toString(i));
+                    fs.delete(pt, true);
+                    fs.copyFromLocalFile(new Path(uDir[i]), pt);
+                }
 
-            status = fs.listStatus(new Path(workDir + "psi"));
-            for (FileStatus stat : status) {
+                pt = new Path(psiT);
+                fs.mkdirs(pt);
 
-                fu.copy(fs, stat.getPath(), fs, pt, false, true, conf);
-            }
+                status = fs.listStatus(new Path(workDir + "psi"));
+                for (FileStatus stat : status) {
+
+                    fu.copy(fs, stat.getPath(), fs, pt, false, true, conf);
+                }
 
-            for (int i = 0; i < numberU; i++) {
-                pt = new Path(workDir + "u" + Integer.toString(i));
-                status = fs.listStatus(pt);
+                for (int i = 0; i < numberU; i++) {
+                    pt = new Path(workDir + "u" + Integer.toString(i));
+                    status = fs.listStatus(pt);
+                    for (FileStatus stat : status) {
+
+                        // The files of a Kronecker operator start with "_".
+                        if (!MatrixFormat.isDataFile(stat.getPath())) {
+                            continue;
+                        }
+
+                        fs.rename(stat.getPath(), new Path(stat.getPath().
+                                toString() + "-U" + Integer.toString(i)));
+                    }
+
+                }
+
+                if ((composite || squaring) && numberU > 1) {
+                    numberU = composeOperators(conf, fs, inProcess, jarDir,
+                            workDir, numberU, Integer.parseInt(steps),
+                            Double.parseDouble(compositeFillIn));
+                    System.out.println("Each step multiplies " + numberU
+                            + " operators.");
+                }
+
+                // The steps become one multiplication by U^steps.
+                if (squaring && numberU == 1 && powerOperator(conf, fs,
+                        inProcess, jarDir, workDir, Integer.parseInt(steps),
+                        Double.parseDouble(squaringDensity))) {
+                    steps = "1";
+                }
+
+                // A Kronecker operator is not partitioned and uses MultMatrix.
+                resident = new boolean[numberU];
+                for (int i = 0; iterative && i < numberU; i++) {
+                    resident[i] = IterateMatrix.prepare(new Configuration(conf),
+                            new Path(workDir + "u" + Integer.toString(i)),
+                            new Path(workDir + "op" + Integer.toString(i)));
+                }
+
+                writeCheckpoint(fs, workDir, 0, workDir + "psi", numberU,
+                        steps, resident);
+
+            } else {
+
+                firstStep = Integer.parseInt(checkpoint.getProperty("step"));
+                numberU = Integer.parseInt(checkpoint.getProperty("numberU"));
+                steps = checkpoint.getProperty("steps");
+
+                resident = new boolean[numberU];
+                for (int i = 0; i < numberU; i++) {
+                    resident[i] = Boolean.parseBoolean(checkpoint.getProperty(
+                            "resident").split(",")[i]);
+                }
+
+                // psiT is the state of the checkpoint.
+                pt = new Path(psiT);
+                fs.delete(pt, true);
+                fs.mkdirs(pt);
+
+                status = fs.listStatus(new Path(checkpoint.getProperty("psi")));
                 for (FileStatus stat : status) {
 
-                    fs.rename(stat.getPath(), new Path(stat.getPath().
-                            toString() + "-U" + Integer.toString(i)));
+                    fu.copy(fs, stat.getPath(), fs, pt, false, true, conf);
                 }
 
+                System.out.println("Resuming after the step " + firstStep
+                        + ".");
             }
 
             System.out.println("The files preparation is complete.\n"
                     + "Executing the steps...");
 
-            rt = Runtime.getRuntime();
-
-            for (int i = 0; i < Integer.parseInt(steps); i++) {
+            for (int i = firstStep; i < Integer.parseInt(steps); i++) {
 
                 for (int j = numberU - 1; j > -1; j--) {
 
@@ -312,14 +829,20 @@ public class Quandoop {
 
                         }
 
-                        partialStates = workDir + "partialStates";
                         fu.copyMerge(fs, pt, fs, new Path(partialStates + "/"
                                 + "step" + Integer.toString(i)  + "/part-0"),
                                 false, conf, null);
                     }
 
-                    status = fs.listStatus(new Path(workDir + "u"
-                                + Integer.toString(j)));
+                    if (resident[j]) {
+                        pt = new Path(workDir + "psiIn");
+                        fs.delete(pt, true);
+                        fs.mkdirs(pt);
+                    } else {
+                        pt = new Path(workDir + "u" + Integer.toString(j));
+                    }
+
+                    status = fs.listStatus(pt);
                     for (FileStatus stat : status) {
 
                         if (stat.getPath().toString().indexOf("psiFile") > -1) {
@@ -327,7 +850,6 @@ public class Quandoop {
                         }
                     }
 
-                    pt = new Path(workDir + "u" + Integer.toString(j));
                     status = fs.listStatus(new Path(psiT));
                     for (FileStatus stat : status) {
 
@@ -346,28 +868,48 @@ public class Quandoop {
                     pt = new Path(psiT);
                     fs.delete(pt, true);
 
-                    pr = rt.exec("hadoop jar " + jarDir
-                            + "operations.jar operations.MultMatrix " + workDir
-                            + "u" + Integer.toString(j) + " " + psiT + " B");
-
-                    pr.waitFor();
+                    if (resident[j]) {
+                        if (!IterateMatrix.step(new Configuration(conf),
+                                new Path(workDir + "op" + Integer.toString(j)),
+                                new Path(workDir + "psiIn"), pt, "B")) {
+                            throw new IOException("The step " + (i + 1)
+                                    + " failed.");
+                        }
+                    } else {
+                        if (!runOperation(conf, fs, inProcess, jarDir,
+                                "MultMatrix", psiT, new String[] {workDir
+                                + "u" + Integer.toString(j), psiT, "B"})) {
+                            throw new IOException("The step " + (i + 1)
+                                    + " failed.");
+                        }
+                    }
 
-                    br = new BufferedReader(new InputStreamReader(
-                            pr.getInputStream()));
+                }
 
-                    if (pr.exitValue() != 0) {
+                /*
+                 * Keep a copy of psiT for the checkpoint of the step, because
+                 * the files of psiT are moved by the next step. The two
+                 * folders are used in turn, so the folder of the previous
+                 * checkpoint is valid until the new manifest is written.
+                 */
+                checkpointPsi = workDir + "checkpoint" + Integer.toString(
+                        (i + 1) % 2);
+                pt = new Path(checkpointPsi);
+                fs.delete(pt, true);
+                fs.mkdirs(pt);
 
-                        while ((line = br.readLine()) != null) {
-                            System.out.println(line);
-                        }
+                status = fs.listStatus(new Path(psiT));
+                for (FileStatus stat : status) {
 
-                        System.exit(1);
+                    if (MatrixFormat.isDataFile(stat.getPath())) {
+                        fu.copy(fs, stat.getPath(), fs, pt, false, true,
+                                conf);
                     }
-
-                    pr.destroy();
-
                 }
 
+                writeCheckpoint(fs, workDir, i + 1, checkpointPsi, numberU,
+                        steps, resident);
+
                 System.out.println("End of the Step " + (i + 1));
             }
 
@@ -378,25 +920,11 @@ public class Quandoop {
             pt = new Path(psiTNorm);
             fs.delete(pt, true);
 
-            pr = rt.exec("hadoop jar " + jarDir + "operations.jar operations."
-                    + "NormMatrix " + psiT + " " + psiTNorm);
-
-            pr.waitFor();
-
-            br = new BufferedReader(new InputStreamReader(
-                    pr.getInputStream()));
-
-            if (pr.exitValue() != 0) {
-
-                while ((line = br.readLine()) != null) {
-                    System.out.println(line);
-                }
-
-                System.exit(1);
+            if (!runOperation(conf, fs, inProcess, jarDir, "NormMatrix",
+                    psiTNorm, new String[] {psiT, psiTNorm})) {
+                throw new IOException("The norm of psiT failed.");
             }
 
-            pr.destroy();
-
             System.out.println("End of the psiTNorm.");
 
             // Put the file with the header in the first position in the folder.
@@ -426,70 +954,8 @@ public class Quandoop {
 
             if (pdfCalc) {
 
-                // Start of the absSquare
-                absSquare = workDir + "absSquare";
-
-                // Delete the output directory if exists.
-                pt = new Path(absSquare);
-                fs.delete(pt, true);
-
                 /*
-                 * Computes the square of the absolute value for each element of
-                 *  the array.
-                 */
-                pr = rt.exec("hadoop jar " + jarDir + "operations.jar "
-                        + "operations.AbsSquare " + psiT + " " + absSquare);
-
-                pr.waitFor();
-
-                br = new BufferedReader(new InputStreamReader(
-                        pr.getInputStream()));
-
-                if (pr.exitValue() != 0) {
-
-                    while ((line = br.readLine()) != null) {
-                        System.out.println(line);
-                    }
-
-                    System.exit(1);
-                }
-
-                pr.destroy();
-
-                // End of the absSquare
-
-                // Start of the reshape
-                reshape = workDir + "reshape";
-
-                // Delete the output directory if exists.
-                pt = new Path(reshape);
-                fs.delete(pt, true);
-
-                // Gives a new shape for the array.
-                pr = rt.exec("hadoop jar " + jarDir + "operations.jar "
-                        + "operations.Reshape " + dimensions + " " + absSquare
-                        + " " + reshape);
-
-                pr.waitFor();
-
-                br = new BufferedReader(new InputStreamReader(
-                        pr.getInputStream()));
-
-                if (pr.exitValue() != 0) {
-
-                    while ((line = br.readLine()) != null) {
-                        System.out.println(line);
-                    }
-
-                    System.exit(1);
-                }
-
-                pr.destroy();
-
-                // End of the reshape
-
-                /*
-                 * Start of the sumAxis. In this case the output of SunAxis
+                 * Start of the marginal. In this case the output of Marginal
                  * function will be the PDF of psiT.
                  */
                 pdf = workDir + "pdf";
@@ -499,29 +965,17 @@ public class Quandoop {
                 fs.delete(pt, true);
 
                 /*
-                 * Sum the elements of the array over given measurement.
-                 */ 
-                pr = rt.exec("hadoop jar " + jarDir + "operations.jar "
-                        + "operations.SumAxis " + measurement + " " + reshape
-                        + " " + pdf);
-
-                pr.waitFor();
-
-                br = new BufferedReader(new InputStreamReader(
-                        pr.getInputStream()));
-
-                if (pr.exitValue() != 0) {
-
-                    while ((line = br.readLine()) != null) {
-                        System.out.println(line);
-                    }
-
-                    System.exit(1);
+                 * Computes the square of the absolute value for each element of
+                 * the array, gives it the shape of the dimensions and sum the
+                 * elements over given measurement in only one job.
+                 */
+                if (!runOperation(conf, fs, inProcess, jarDir, "Marginal",
+                        pdf, new String[] {dimensions, measurement, psiT,
+                        pdf})) {
+                    throw new IOException("The pdf of psiT failed.");
                 }
 
-                pr.destroy();
-
-                // End of the sumAxis
+                // End of the marginal
 
                 System.out.println("End of the pdf.");
             }
@@ -582,6 +1036,7 @@ public class Quandoop {
         } catch (Exception e) {
 
             System.out.println(e);
+            System.exit(1);
 
         }
 